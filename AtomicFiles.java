@@ -0,0 +1,58 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// Whole-file writes that never leave a half-written file behind: the data
+// goes to a temp file, is fsynced, and is then renamed over the target.
+public final class AtomicFiles {
+    private AtomicFiles() {}
+
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // For writers that fill the channel themselves
+    public interface ChannelContent {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    public static void write(Path file, Content content) throws IOException {
+        writeChannel(file, channel -> {
+            // Not closed on its own; closing the channel is enough once it is flushed
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            content.writeTo(out);
+            out.flush();
+        });
+    }
+
+    public static void writeChannel(Path file, ChannelContent content) throws IOException {
+        long start = System.nanoTime();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.writeTo(channel);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Metrics.increment("io.errors");
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.toAbsolutePath().getParent());
+        Metrics.record("io.file.write", System.nanoTime() - start);
+    }
+
+    // Makes the rename itself durable. Not every platform lets a directory be
+    // opened for this; there the rename is left to the OS.
+    static void syncDirectory(Path directory) {
+        if (directory == null) return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Best effort
+        }
+    }
+}
@@ -0,0 +1,511 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Micro-benchmarks for the ExpenseManager and FileManager hot paths on
+// synthetic data. Each benchmark runs a few warm-up iterations, then times
+// measured iterations of a fixed batch of operations and reports ns/op.
+//
+//   java Benchmarks [--sizes 10k,1m,10m] [--group-size 8] [--batch 10000]
+//                   [--warmup 3] [--iterations 5] [--only name,...] [--shards N]
+//                   [--csv results.csv] [--baseline old.csv] [--tolerance 20]
+//
+// With --baseline, any benchmark more than --tolerance percent slower than
+// the baseline fails the run (exit code 1). The concurrent benchmarks also
+// fail it when the final balances are wrong; concurrentMixed is the stress
+// check against a serial replay (e.g. --only concurrentMixed --iterations 20).
+// Large sizes need a big heap, roughly 1.5GB per million expenses.
+public class Benchmarks {
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel", "Utilities", "Entertainment"};
+    private static final long SEED = 42;
+
+    private final int groupSize;
+    private final int batch;
+    private final int warmup;
+    private final int iterations;
+    private final Set<String> only;
+    private final int shards;
+    private final List<Result> results = new ArrayList<>();
+
+    // Keeps results alive so the JIT cannot drop the work
+    private static volatile long sink;
+
+    private Benchmarks(int groupSize, int batch, int warmup, int iterations, Set<String> only, int shards) {
+        this.groupSize = groupSize;
+        this.batch = batch;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.only = only;
+        this.shards = shards;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+        // FileManager reads its data directory once, so point it at scratch space first
+        Path scratch = Files.createTempDirectory("smartsplit-bench");
+        System.setProperty("smartsplit.dataDir", scratch.toString());
+
+        Benchmarks benchmarks = new Benchmarks(
+                Integer.parseInt(options.getOrDefault("group-size", "8")),
+                Integer.parseInt(options.getOrDefault("batch", "10000")),
+                Integer.parseInt(options.getOrDefault("warmup", "3")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                options.containsKey("only") ? new HashSet<>(Arrays.asList(options.get("only").split(","))) : null,
+                Integer.parseInt(options.getOrDefault("shards",
+                        Integer.toString(Runtime.getRuntime().availableProcessors()))));
+        try {
+            for (String size : options.getOrDefault("sizes", "10k").split(",")) {
+                benchmarks.runAll(parseSize(size));
+            }
+        } finally {
+            FileManager.closeJournal();
+            deleteRecursively(scratch);
+        }
+
+        if (options.containsKey("csv")) {
+            benchmarks.writeCsv(Paths.get(options.get("csv")));
+        }
+        if (options.containsKey("baseline")) {
+            double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "20"));
+            if (!benchmarks.compare(Paths.get(options.get("baseline")), tolerance)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private void runAll(int size) {
+        System.out.printf("\033[1;35m=== %,d expenses, groups of %d ===\n", size, groupSize);
+        Dataset data = new Dataset(size, groupSize, new Random(SEED));
+        ExpenseManager manager = new ExpenseManager(data.expenses, data.groups);
+        Random random = new Random(SEED + 1);
+
+        List<Expense> fresh = data.moreExpenses(batch, random);
+        benchmark("addExpense", size, batch,
+                () -> fresh.forEach(manager::addExpense),
+                () -> fresh.forEach(e -> manager.removeExpense(e.getExpenseId())));
+        benchmark("removeExpense", size, batch,
+                () -> fresh.forEach(manager::addExpense),
+                () -> fresh.forEach(e -> manager.removeExpense(e.getExpenseId())),
+                null);
+
+        String[] users = data.sampleUsers(batch, random);
+        int[] months = new int[batch];
+        for (int i = 0; i < batch; i++) months[i] = 1 + random.nextInt(12);
+        benchmark("getMonthlyExpenses", size, batch, () -> {
+            long found = 0;
+            for (int i = 0; i < batch; i++) {
+                found += manager.getMonthlyExpenses(users[i], months[i], Dataset.FIRST_YEAR + 1).size();
+            }
+            sink = found;
+        }, null);
+        benchmark("getUserGroups", size, batch, () -> {
+            long found = 0;
+            for (String user : users) found += manager.getUserGroups(user).size();
+            sink = found;
+        }, null);
+
+        // The summary prints every non-zero balance; the console output itself is discarded
+        int summaries = Math.max(1, Math.min(batch, 1_000_000 / data.userCount));
+        benchmark("showUserSummary", size, summaries, () -> {
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                for (int i = 0; i < summaries; i++) manager.showUserSummary(users[i]);
+            } finally {
+                System.setOut(console);
+            }
+        }, null);
+
+        List<Expense> all = manager.getExpenses();
+        benchmark("saveExpenses", size, size, () -> FileManager.saveExpenses(all), null);
+        benchmark("loadExpenses", size, size, () -> sink = FileManager.loadExpenses().size(), null);
+
+        benchmark("concurrentAddExpense", size, batch,
+                () -> concurrentAdd(manager, fresh),
+                () -> {
+                    fresh.forEach(e -> manager.removeExpense(e.getExpenseId()));
+                    if (!manager.verifyBalances()) {
+                        throw new IllegalStateException("Balances diverged from a full recompute after concurrent adds");
+                    }
+                });
+
+        // Stress check: fails the run if the final balances differ from a serial replay
+        Map<String, Expense> survivors = new ConcurrentHashMap<>();
+        long[][] usersBefore = new long[1][];
+        Map<String, Ledger> groupsBefore = new HashMap<>();
+        benchmark("concurrentMixed", size, batch,
+                () -> {
+                    survivors.clear();
+                    usersBefore[0] = manager.getUserBalances();
+                    data.groups.forEach(g -> groupsBefore.put(g.getGroupId(), manager.getGroupBalances(g.getGroupId())));
+                },
+                () -> concurrentMixed(manager, fresh, data.groups, survivors),
+                () -> {
+                    checkAgainstReplay(manager, usersBefore[0], groupsBefore, survivors.values());
+                    survivors.keySet().forEach(manager::removeExpense);
+                });
+
+        // Batches the size of a settlement plan, each persisted with one journal write plus fsync
+        benchmark("commitBatch", size, batch,
+                () -> commitBatches(manager, fresh, 50),
+                () -> fresh.forEach(e -> manager.removeExpense(e.getExpenseId())));
+
+        // History kept on disk: opening it reads checkpoints, block summaries
+        // and the last block's events; as-of queries read at most one block
+        if (only == null || only.contains("openHistory") || only.contains("balanceAsOf")) {
+            int interval = Integer.getInteger("smartsplit.checkpointInterval", 10_000);
+            EventStore store = new EventStore(
+                    Paths.get(System.getProperty("smartsplit.dataDir"), "history-" + size), () -> {});
+            ExpenseEventLog recorded = ExpenseEventLog.open(store, interval, 0, new long[0], new HashMap<>());
+            long first = System.currentTimeMillis();
+            data.expenses.forEach(recorded::expenseAdded);
+            store.flush();
+            long span = System.currentTimeMillis() - first + 1;
+            benchmark("openHistory", size, 1,
+                    () -> sink = ExpenseEventLog.open(store, interval, 0, new long[0], new HashMap<>()).size(), null);
+
+            // Most of these read a block back from disk, so fewer of them
+            int queries = Math.min(batch, 200);
+            long[] moments = new long[queries];
+            for (int i = 0; i < queries; i++) moments[i] = first + (long) (random.nextDouble() * span);
+            benchmark("balanceAsOf", size, queries, () -> {
+                long total = 0;
+                for (int i = 0; i < queries; i++) {
+                    total += recorded.userBalanceAsOf(SymbolTable.USERS.lookup(users[i]), moments[i]);
+                }
+                sink = total;
+            }, null);
+        }
+
+        // Runs last: the shards re-sequence the same Expense objects and take
+        // over the groups' membership listeners, so manager is done with them
+        if (only == null || only.contains("shardedAddExpense")) {
+            try (ShardedExpenseManager sharded = new ShardedExpenseManager(shards, data.expenses, data.groups)) {
+                benchmark("shardedAddExpense", size, batch,
+                        () -> shardedAdd(sharded, fresh),
+                        () -> {
+                            fresh.forEach(e -> sharded.removeExpense(e.getExpenseId()));
+                            if (!sharded.verifyBalances()) {
+                                throw new IllegalStateException("Shard balances diverged from a full recompute");
+                            }
+                        });
+            }
+        }
+    }
+
+    private static void commitBatches(ExpenseManager manager, List<Expense> expenses, int batchSize) {
+        for (int from = 0; from < expenses.size(); from += batchSize) {
+            ExpenseManager.Batch batch = manager.beginBatch();
+            expenses.subList(from, Math.min(from + batchSize, expenses.size())).forEach(batch::add);
+            batch.commit(FileManager::writeExpenseBatch);
+        }
+    }
+
+    // Queues every add, then waits; each shard applies its share on its own writer
+    private static void shardedAdd(ShardedExpenseManager sharded, List<Expense> expenses) {
+        List<CompletableFuture<Void>> queued = new ArrayList<>(expenses.size());
+        for (Expense expense : expenses) {
+            queued.add(sharded.addExpenseAsync(expense));
+        }
+        queued.forEach(CompletableFuture::join);
+    }
+
+    // Writers on every core; the after-step checks the result against a full recompute
+    private static void concurrentAdd(ExpenseManager manager, List<Expense> expenses) {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int slice = (expenses.size() + threads - 1) / threads;
+            for (int t = 0; t < threads; t++) {
+                List<Expense> part = expenses.subList(Math.min(expenses.size(), t * slice),
+                        Math.min(expenses.size(), (t + 1) * slice));
+                futures.add(pool.submit(() -> part.forEach(manager::addExpense)));
+            }
+            for (Future<?> future : futures) future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Concurrent add failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Writers add, edit and remove expenses, each on ids no other writer
+    // touches, while readers check that every balance view they get nets to
+    // zero (a torn read would not). Each writer records what its operations
+    // leave behind in survivors; since no ids are shared, that is exactly what
+    // replaying all of them serially would leave.
+    private static void concurrentMixed(ExpenseManager manager, List<Expense> expenses, List<Group> groups,
+                                        Map<String, Expense> survivors) {
+        int writers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int readers = Math.max(1, writers / 2);
+        ExecutorService pool = Executors.newFixedThreadPool(writers + readers);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<String> tornReads = new CopyOnWriteArrayList<>();
+        try {
+            List<Future<?>> readerFutures = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                Random random = new Random(SEED + 100 + r);
+                readerFutures.add(pool.submit(() -> {
+                    while (writing.get()) {
+                        long total = 0;
+                        for (long balance : manager.getUserBalances()) total += balance;
+                        if (total != 0) tornReads.add("user balances sum to " + total);
+                        Group group = groups.get(random.nextInt(groups.size()));
+                        long[] groupTotal = new long[1];
+                        manager.getGroupBalances(group.getGroupId()).forEach((userId, amount) -> groupTotal[0] += amount);
+                        if (groupTotal[0] != 0) tornReads.add(group.getGroupId() + " sums to " + groupTotal[0]);
+                    }
+                }));
+            }
+
+            List<Future<?>> writerFutures = new ArrayList<>();
+            int slice = (expenses.size() + writers - 1) / writers;
+            for (int t = 0; t < writers; t++) {
+                List<Expense> part = expenses.subList(Math.min(expenses.size(), t * slice),
+                        Math.min(expenses.size(), (t + 1) * slice));
+                Random random = new Random(SEED + t);
+                writerFutures.add(pool.submit(() -> {
+                    Map<String, Expense> mine = new HashMap<>();
+                    List<String> live = new ArrayList<>();
+                    for (Expense expense : part) {
+                        manager.addExpense(expense);
+                        mine.put(expense.getExpenseId(), expense);
+                        live.add(expense.getExpenseId());
+                        if (random.nextInt(10) < 3) {
+                            Expense old = mine.get(live.get(random.nextInt(live.size())));
+                            Expense edited = new Expense(old.getExpenseId(), old.getTitle(), old.getDescription(),
+                                    old.getAmount() + 1 + random.nextInt(100), old.getPayer(),
+                                    old.getParticipants(), old.getDate(), old.getCategory(), old.getGroupId());
+                            manager.updateExpense(edited);
+                            mine.put(edited.getExpenseId(), edited);
+                        }
+                        if (random.nextInt(10) < 2) {
+                            int index = random.nextInt(live.size());
+                            String removed = live.get(index);
+                            live.set(index, live.get(live.size() - 1));
+                            live.remove(live.size() - 1);
+                            manager.removeExpense(removed);
+                            mine.remove(removed);
+                        }
+                    }
+                    survivors.putAll(mine);
+                }));
+            }
+            for (Future<?> future : writerFutures) future.get();
+            writing.set(false);
+            for (Future<?> future : readerFutures) future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Concurrent stress run failed", e);
+        } finally {
+            writing.set(false);
+            pool.shutdown();
+        }
+        if (!tornReads.isEmpty()) {
+            throw new IllegalStateException("Readers saw inconsistent balances: " + tornReads.get(0));
+        }
+    }
+
+    // The balances before the run plus every surviving expense, applied one by one
+    private static void checkAgainstReplay(ExpenseManager manager, long[] usersBefore,
+                                           Map<String, Ledger> groupsBefore, Collection<Expense> survivors) {
+        long[] expectedUsers = Arrays.copyOf(usersBefore, SymbolTable.USERS.size());
+        Map<String, Ledger> expectedGroups = new HashMap<>();
+        groupsBefore.forEach((groupId, balances) -> expectedGroups.put(groupId, balances.copy()));
+        for (Expense expense : survivors) {
+            Ledger groupBalances = expense.getGroupId() != null ? expectedGroups.get(expense.getGroupId()) : null;
+            ExpenseManager.shares(expense).forEach((userId, amount) -> {
+                expectedUsers[userId] += amount;
+                if (groupBalances != null) groupBalances.add(userId, amount);
+            });
+        }
+
+        long[] actualUsers = manager.getUserBalances();
+        for (int userId = 0; userId < Math.max(expectedUsers.length, actualUsers.length); userId++) {
+            long expected = userId < expectedUsers.length ? expectedUsers[userId] : 0;
+            long actual = userId < actualUsers.length ? actualUsers[userId] : 0;
+            if (expected != actual) {
+                throw new IllegalStateException(String.format("Balance of %s is %d after the concurrent run, %d in a serial replay",
+                        SymbolTable.USERS.name(userId), actual, expected));
+            }
+        }
+        expectedGroups.forEach((groupId, expected) -> {
+            if (!manager.getGroupBalances(groupId).sameBalances(expected)) {
+                throw new IllegalStateException("Balances of group " + groupId + " differ from a serial replay");
+            }
+        });
+        if (!manager.verifyBalances()) {
+            throw new IllegalStateException("Balances diverged from a full recompute after the concurrent run");
+        }
+    }
+
+    private void benchmark(String name, int size, int ops, Runnable timed, Runnable after) {
+        benchmark(name, size, ops, null, timed, after);
+    }
+
+    private void benchmark(String name, int size, int ops, Runnable before, Runnable timed, Runnable after) {
+        if (only != null && !only.contains(name)) return;
+
+        long[] samples = new long[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            if (before != null) before.run();
+            long start = System.nanoTime();
+            timed.run();
+            long elapsed = System.nanoTime() - start;
+            if (after != null) after.run();
+            if (i >= 0) samples[i] = elapsed;
+        }
+
+        Arrays.sort(samples);
+        double median = (double) samples[samples.length / 2] / ops;
+        double best = (double) samples[0] / ops;
+        Result result = new Result(name, size, median);
+        results.add(result);
+        System.out.printf("\033[1;36m%-22s \033[0;37m%12.1f ns/op (best %.1f) %14s ops/s\n",
+                name, median, best, String.format("%,.0f", 1e9 / median));
+    }
+
+    private void writeCsv(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("benchmark,size,ns_per_op\n");
+            for (Result result : results) {
+                writer.write(String.format(Locale.ROOT, "%s,%d,%.3f\n", result.name, result.size, result.nsPerOp));
+            }
+        }
+    }
+
+    private boolean compare(Path baselineFile, double tolerance) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(baselineFile)) {
+            String[] parts = line.split(",");
+            if (parts.length == 3 && !parts[0].equals("benchmark")) {
+                baseline.put(parts[0] + "," + parts[1], Double.parseDouble(parts[2]));
+            }
+        }
+
+        boolean passed = true;
+        System.out.println("\033[1;33m=== AGAINST BASELINE ===");
+        for (Result result : results) {
+            Double previous = baseline.get(result.name + "," + result.size);
+            if (previous == null) continue;
+            double change = (result.nsPerOp - previous) / previous * 100;
+            boolean regressed = change > tolerance;
+            passed &= !regressed;
+            System.out.printf("%s%-22s %,12d %+7.1f%%%s\n", regressed ? "\033[1;31m" : "\033[0;37m",
+                    result.name, result.size, change, regressed ? "  REGRESSION" : "");
+        }
+        return passed;
+    }
+
+    private static class Result {
+        final String name;
+        final int size;
+        final double nsPerOp;
+
+        Result(String name, int size, double nsPerOp) {
+            this.name = name;
+            this.size = size;
+            this.nsPerOp = nsPerOp;
+        }
+    }
+
+    // Users are spread over fixed-size groups; two thirds of expenses are split
+    // inside a group and the rest between a few random users, over two years
+    private static class Dataset {
+        static final int FIRST_YEAR = 2023;
+
+        final int userCount;
+        final List<Group> groups = new ArrayList<>();
+        final List<Expense> expenses;
+        private final String[][] groupMembers;
+
+        Dataset(int expenseCount, int groupSize, Random random) {
+            this.userCount = Math.max(groupSize * 4, expenseCount / 50);
+            int groupCount = Math.max(1, userCount / groupSize);
+            this.groupMembers = new String[groupCount][];
+            for (int g = 0; g < groupCount; g++) {
+                Set<String> members = new LinkedHashSet<>();
+                while (members.size() < Math.min(groupSize, userCount)) {
+                    members.add(user(random.nextInt(userCount)));
+                }
+                groupMembers[g] = members.toArray(new String[0]);
+                groups.add(new Group("bench-group-" + g, "Group " + g, "Synthetic group", groupMembers[g][0], members,
+                        java.time.LocalDateTime.of(FIRST_YEAR, 1, 1, 0, 0)));
+            }
+            this.expenses = moreExpenses(expenseCount, random);
+        }
+
+        List<Expense> moreExpenses(int count, Random random) {
+            List<Expense> generated = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String groupId = null;
+                String[] participants;
+                if (random.nextInt(3) < 2) {
+                    int g = random.nextInt(groupMembers.length);
+                    groupId = groups.get(g).getGroupId();
+                    participants = pick(groupMembers[g], 2 + random.nextInt(Math.max(1, groupMembers[g].length - 1)), random);
+                } else {
+                    Set<String> people = new LinkedHashSet<>();
+                    int wanted = 2 + random.nextInt(3);
+                    while (people.size() < wanted) people.add(user(random.nextInt(userCount)));
+                    participants = people.toArray(new String[0]);
+                }
+                String date = String.format("%d-%02d-%02d %02d:%02d", FIRST_YEAR + random.nextInt(2),
+                        1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60));
+                generated.add(new Expense("bench-" + i, "Synthetic expense", 100 + random.nextInt(500_000),
+                        participants[random.nextInt(participants.length)], participants, date,
+                        CATEGORIES[random.nextInt(CATEGORIES.length)], groupId));
+            }
+            return generated;
+        }
+
+        String[] sampleUsers(int count, Random random) {
+            String[] sample = new String[count];
+            for (int i = 0; i < count; i++) sample[i] = user(random.nextInt(userCount));
+            return sample;
+        }
+
+        private static String[] pick(String[] from, int count, Random random) {
+            String[] shuffled = from.clone();
+            count = Math.min(count, shuffled.length);
+            for (int i = 0; i < count; i++) {
+                int j = i + random.nextInt(shuffled.length - i);
+                String swap = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = swap;
+            }
+            return Arrays.copyOf(shuffled, count);
+        }
+
+        private static String user(int index) {
+            return "user" + index;
+        }
+    }
+
+    // Accepts plain counts or k/m suffixes: 10k, 1m, 10m
+    private static int parseSize(String size) {
+        String lower = size.trim().toLowerCase(Locale.ROOT);
+        if (lower.endsWith("k")) return Integer.parseInt(lower.substring(0, lower.length() - 1)) * 1_000;
+        if (lower.endsWith("m")) return Integer.parseInt(lower.substring(0, lower.length() - 1)) * 1_000_000;
+        return Integer.parseInt(lower);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// Versioned binary format for users, groups and expenses, one file each.
+//
+//   header:     magic, version, kind, record count
+//   dictionary: size, then every distinct string once as length-prefixed UTF-8
+//   records:    string columns hold dictionary indexes (-1 for null);
+//               amounts and timestamps are fixed-width longs
+//
+// Expenses are stored column by column so a reader can size every array
+// from the header before touching the rows.
+public class BinarySnapshot {
+    private static final int MAGIC = 0x53535053; // "SSPS"
+    private static final int VERSION = 1;
+    private static final byte USERS = 1;
+    private static final byte GROUPS = 2;
+    private static final byte EXPENSES = 3;
+    private static final long NO_TIMESTAMP = Expense.NO_MINUTE;
+    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    public static void writeUsers(Path file, Collection<User> users) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        for (User user : users) {
+            dictionary.add(user.getUsername());
+            dictionary.add(user.getPassword());
+            dictionary.add(user.getName());
+            dictionary.add(user.getEmail());
+            dictionary.add(user.getCurrency());
+            user.getCategories().forEach(dictionary::add);
+        }
+
+        write(file, USERS, dictionary, users.size(), out -> {
+            for (User user : users) {
+                out.writeInt(dictionary.ref(user.getUsername()));
+                out.writeInt(dictionary.ref(user.getPassword()));
+                out.writeInt(dictionary.ref(user.getName()));
+                out.writeInt(dictionary.ref(user.getEmail()));
+                out.writeInt(dictionary.ref(user.getCurrency()));
+                out.writeInt(user.getCategories().size());
+                for (String category : user.getCategories()) {
+                    out.writeInt(dictionary.ref(category));
+                }
+            }
+        });
+    }
+
+    public static List<User> readUsers(Path file) throws IOException {
+        try (DataInputStream in = open(file, USERS)) {
+            int count = in.readInt();
+            String[] strings = readDictionary(in);
+            List<User> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String username = strings[in.readInt()];
+                String password = strings[in.readInt()];
+                String name = strings[in.readInt()];
+                String email = strings[in.readInt()];
+                String currency = strings[in.readInt()];
+                List<String> categories = new ArrayList<>();
+                int categoryCount = in.readInt();
+                for (int c = 0; c < categoryCount; c++) {
+                    categories.add(strings[in.readInt()]);
+                }
+                users.add(new User(username, password, name, email, currency, categories));
+            }
+            return users;
+        }
+    }
+
+    public static void writeGroups(Path file, Collection<Group> groups) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        for (Group group : groups) {
+            dictionary.add(group.getGroupId());
+            dictionary.add(group.getGroupName());
+            dictionary.add(group.getDescription());
+            dictionary.add(group.getCreator());
+            group.getMembers().forEach(dictionary::add);
+        }
+
+        write(file, GROUPS, dictionary, groups.size(), out -> {
+            for (Group group : groups) {
+                out.writeInt(dictionary.ref(group.getGroupId()));
+                out.writeInt(dictionary.ref(group.getGroupName()));
+                out.writeInt(dictionary.ref(group.getDescription()));
+                out.writeInt(dictionary.ref(group.getCreator()));
+                out.writeLong(group.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+                Set<String> members = group.getMembers();
+                out.writeInt(members.size());
+                for (String member : members) {
+                    out.writeInt(dictionary.ref(member));
+                }
+            }
+        });
+    }
+
+    public static List<Group> readGroups(Path file) throws IOException {
+        try (DataInputStream in = open(file, GROUPS)) {
+            int count = in.readInt();
+            String[] strings = readDictionary(in);
+            List<Group> groups = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String groupId = strings[in.readInt()];
+                String groupName = string(strings, in.readInt());
+                String description = string(strings, in.readInt());
+                String creator = string(strings, in.readInt());
+                LocalDateTime createdAt = LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC);
+                int memberCount = in.readInt();
+                Set<String> members = new LinkedHashSet<>();
+                for (int m = 0; m < memberCount; m++) {
+                    members.add(strings[in.readInt()]);
+                }
+                groups.add(new Group(groupId, groupName, description, creator, members, createdAt));
+            }
+            return groups;
+        }
+    }
+
+    public static void writeExpenses(Path file, Collection<Expense> expenses) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        long[] timestamps = new long[expenses.size()];
+        int row = 0;
+        for (Expense expense : expenses) {
+            dictionary.add(expense.getExpenseId());
+            dictionary.add(expense.getName());
+            dictionary.add(expense.getDescription());
+            dictionary.add(expense.getPayer());
+            dictionary.add(expense.getCategory());
+            dictionary.add(expense.getGroupId());
+            for (int participant : expense.getParticipantIds()) {
+                dictionary.add(SymbolTable.USERS.name(participant));
+            }
+            timestamps[row] = expense.getMinute();
+            if (timestamps[row++] == NO_TIMESTAMP) {
+                dictionary.add(expense.getDate());
+            }
+        }
+
+        write(file, EXPENSES, dictionary, expenses.size(), out -> {
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getExpenseId()));
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getName()));
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getDescription()));
+            for (Expense expense : expenses) out.writeLong(expense.getAmount());
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getPayer()));
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getCategory()));
+            for (Expense expense : expenses) out.writeInt(dictionary.ref(expense.getGroupId()));
+            // Dates that don't fit the usual pattern are kept verbatim in a side column
+            for (long timestamp : timestamps) out.writeLong(timestamp);
+            int next = 0;
+            for (Expense expense : expenses) {
+                out.writeInt(timestamps[next++] == NO_TIMESTAMP ? dictionary.ref(expense.getDate()) : -1);
+            }
+            for (Expense expense : expenses) out.writeInt(expense.getParticipantIds().length);
+            for (Expense expense : expenses) {
+                for (int participant : expense.getParticipantIds()) {
+                    out.writeInt(dictionary.ref(SymbolTable.USERS.name(participant)));
+                }
+            }
+        });
+    }
+
+    public static List<Expense> readExpenses(Path file) throws IOException {
+        try (DataInputStream in = open(file, EXPENSES)) {
+            int count = in.readInt();
+            String[] strings = readDictionary(in);
+            int[] ids = readInts(in, count);
+            int[] names = readInts(in, count);
+            int[] descriptions = readInts(in, count);
+            long[] amounts = readLongs(in, count);
+            int[] payers = readInts(in, count);
+            int[] categories = readInts(in, count);
+            int[] groupIds = readInts(in, count);
+            long[] timestamps = readLongs(in, count);
+            int[] rawDates = readInts(in, count);
+            int[] participantCounts = readInts(in, count);
+
+            List<Expense> expenses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String[] participants = new String[participantCounts[i]];
+                for (int p = 0; p < participants.length; p++) {
+                    participants[p] = strings[in.readInt()];
+                }
+                String date = timestamps[i] == NO_TIMESTAMP
+                        ? strings[rawDates[i]]
+                        : dtf.format(LocalDateTime.ofEpochSecond(timestamps[i] * 60, 0, ZoneOffset.UTC));
+                expenses.add(new Expense(
+                        strings[ids[i]], string(strings, names[i]), string(strings, descriptions[i]),
+                        amounts[i], strings[payers[i]], participants, date,
+                        string(strings, categories[i]), string(strings, groupIds[i])
+                ));
+            }
+            return expenses;
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Goes through AtomicFiles, so a failed or interrupted save never leaves a
+    // half-written snapshot
+    private static void write(Path file, byte kind, Dictionary dictionary, int count,
+                              RecordWriter records) throws IOException {
+        AtomicFiles.write(file, raw -> {
+            DataOutputStream out = new DataOutputStream(raw);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(kind);
+            out.writeInt(count);
+            out.writeInt(dictionary.strings.size());
+            for (String value : dictionary.strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            records.write(out);
+            out.flush();
+        });
+    }
+
+    private static DataInputStream open(Path file, byte kind) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException("Not a snapshot file: " + file);
+        }
+        int version = in.readShort();
+        if (version != VERSION || in.readByte() != kind) {
+            in.close();
+            throw new IOException("Unsupported snapshot version " + version + " in " + file);
+        }
+        return in;
+    }
+
+    private static String[] readDictionary(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        byte[] buffer = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.readInt();
+            if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+            in.readFully(buffer, 0, length);
+            strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) values[i] = in.readInt();
+        return values;
+    }
+
+    private static long[] readLongs(DataInputStream in, int count) throws IOException {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) values[i] = in.readLong();
+        return values;
+    }
+
+    private static String string(String[] strings, int ref) {
+        return ref >= 0 ? strings[ref] : null;
+    }
+
+    private static class Dictionary {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        void add(String value) {
+            if (value != null && !refs.containsKey(value)) {
+                refs.put(value, strings.size());
+                strings.add(value);
+            }
+        }
+
+        int ref(String value) {
+            return value != null ? refs.get(value) : -1;
+        }
+    }
+}
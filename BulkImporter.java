@@ -0,0 +1,386 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+// Streams expenses from a CSV or JSON file into an ExpenseManager. The reader
+// cuts the input into batches of raw rows; batches are validated in parallel
+// on the common pool and applied in file order, each under one write lock.
+// Only a fixed window of batches is in flight and rejected rows go straight
+// to the error report, so memory stays flat however large the input is.
+// Nothing is persisted here; the caller saves once at the end.
+//
+// CSV needs a header row naming its columns; JSON is either an array of
+// objects or one object per line. Field names match the HTTP API:
+//
+//   name, description, amount, payer, participants, date, category, groupId, id
+//
+// participants is a JSON array, or in CSV a list separated by ';' (or ','
+// inside a quoted field). date is "yyyy-MM-dd HH:mm" or "yyyy-MM-dd"; a row
+// without an id gets a fresh one.
+public class BulkImporter {
+    private static final int BATCH_SIZE = 4096;
+    private static final long PROGRESS_EVERY = 100_000;
+    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final ExpenseManager expenseManager;
+    private final Set<String> usernames;
+    private final int window = ForkJoinPool.commonPool().getParallelism() + 1;
+
+    public BulkImporter(ExpenseManager expenseManager, Collection<User> users) {
+        this.expenseManager = expenseManager;
+        this.usernames = new HashSet<>();
+        for (User user : users) {
+            usernames.add(user.getUsername());
+        }
+    }
+
+    public static class Result {
+        private long read;
+        private long imported;
+        private long rejected;
+
+        public long getRead() { return read; }
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+    }
+
+    public static boolean isJson(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson");
+    }
+
+    // Rejected rows are written to errorReport as "line N: reason: row"
+    public Result importFile(Path input, Path errorReport) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter errors = Files.newBufferedWriter(errorReport, StandardCharsets.UTF_8)) {
+            RowSource source = isJson(input) ? new JsonRows(reader) : new CsvRows(reader);
+            Deque<CompletableFuture<List<Row>>> inFlight = new ArrayDeque<>();
+            List<Row> batch;
+            while ((batch = source.next(BATCH_SIZE)) != null) {
+                List<Row> rows = batch;
+                inFlight.add(CompletableFuture.supplyAsync(() -> validate(source, rows), ForkJoinPool.commonPool()));
+                if (inFlight.size() >= window) {
+                    apply(inFlight.poll().join(), errors, result);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                apply(inFlight.poll().join(), errors, result);
+            }
+        }
+        Metrics.record("import.expenses", System.nanoTime() - start);
+        Metrics.increment("import.rows.imported", result.imported);
+        Metrics.increment("import.rows.rejected", result.rejected);
+        return result;
+    }
+
+    private List<Row> validate(RowSource source, List<Row> rows) {
+        for (Row row : rows) {
+            try {
+                row.expense = toExpense(source.fields(row.text));
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                row.error = e.getMessage();
+            }
+        }
+        return rows;
+    }
+
+    private void apply(List<Row> rows, Writer errors, Result result) throws IOException {
+        List<Expense> valid = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (row.expense != null) valid.add(row.expense);
+        }
+        // By identity: a duplicate shares its id, and so equals(), with the row that was kept
+        Set<Expense> duplicates = Collections.newSetFromMap(new IdentityHashMap<>());
+        duplicates.addAll(expenseManager.addExpenses(valid));
+        for (Row row : rows) {
+            if (row.expense != null && duplicates.contains(row.expense)) {
+                row.error = "Duplicate expense id " + row.expense.getExpenseId();
+            }
+            if (row.error != null) {
+                errors.write("line " + row.line + ": " + row.error + ": " + row.text.replace('\n', ' '));
+                errors.write('\n');
+                result.rejected++;
+            } else {
+                result.imported++;
+            }
+            if (++result.read % PROGRESS_EVERY == 0) {
+                System.out.printf("\033[0;37m%,d rows read, %,d imported, %,d rejected\n",
+                        result.read, result.imported, result.rejected);
+            }
+        }
+    }
+
+    private Expense toExpense(Map<String, Object> fields) {
+        String name = required(fields, "name");
+        long amount = Money.parse(required(fields, "amount"));
+        if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");
+        String payer = required(fields, "payer");
+        String category = required(fields, "category");
+        String date = date(required(fields, "date"));
+        String groupId = optional(fields, "groupId");
+        String expenseId = optional(fields, "id");
+
+        String[] participants = participants(fields.get("participants"));
+        if (participants.length == 0) throw new IllegalArgumentException("At least one participant is required");
+        checkUser(payer);
+        Group group = groupId != null ? expenseManager.getGroupById(groupId) : null;
+        if (groupId != null && group == null) throw new IllegalArgumentException("Unknown group " + groupId);
+        if (group != null && !group.hasMember(payer)) {
+            throw new IllegalArgumentException(payer + " is not a member of group " + groupId);
+        }
+        for (String participant : participants) {
+            checkUser(participant);
+            if (group != null && !group.hasMember(participant)) {
+                throw new IllegalArgumentException(participant + " is not a member of group " + groupId);
+            }
+        }
+
+        return new Expense(
+                expenseId != null ? expenseId : UUID.randomUUID().toString(),
+                name,
+                Objects.toString(optional(fields, "description"), ""),
+                amount,
+                payer,
+                participants,
+                date,
+                category,
+                groupId
+        );
+    }
+
+    // Checked before the Expense is built, so a bad row never interns a name
+    private void checkUser(String username) {
+        if (!usernames.contains(username)) throw new IllegalArgumentException("Unknown user " + username);
+    }
+
+    private static String date(String value) {
+        try {
+            if (value.length() == 10) {
+                return dtf.format(LocalDate.parse(value).atStartOfDay());
+            }
+            return dtf.format(LocalDateTime.parse(value, dtf));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date, use yyyy-MM-dd HH:mm: " + value);
+        }
+    }
+
+    private static String[] participants(Object value) {
+        List<String> names = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (!(item instanceof String)) throw new IllegalArgumentException("participants must hold strings");
+                names.add(((String) item).trim());
+            }
+        } else if (value instanceof String) {
+            for (String name : ((String) value).split("[;,]")) {
+                names.add(name.trim());
+            }
+        } else if (value != null) {
+            throw new IllegalArgumentException("participants must be a list");
+        }
+        names.removeIf(String::isEmpty);
+        return names.toArray(new String[0]);
+    }
+
+    private static String required(Map<String, Object> fields, String field) {
+        String value = optional(fields, field);
+        if (value == null) throw new IllegalArgumentException("Missing " + field);
+        return value;
+    }
+
+    private static String optional(Map<String, Object> fields, String field) {
+        Object value = fields.get(field);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException(field + " must be a string");
+        }
+        String text = value != null ? ((String) value).trim() : null;
+        // The journal and text files are pipe-delimited, one record per line
+        if (text != null && (text.indexOf('|') >= 0 || text.indexOf('\n') >= 0)) {
+            throw new IllegalArgumentException(field + " may not contain '|' or line breaks");
+        }
+        return text == null || text.isEmpty() ? null : text;
+    }
+
+    private static class Row {
+        final long line;
+        final String text;
+        Expense expense;
+        String error;
+
+        Row(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+
+    // Reading is sequential and cheap; splitting a row into fields happens
+    // during validation, on the pool
+    private interface RowSource {
+        List<Row> next(int max) throws IOException;
+        Map<String, Object> fields(String text);
+    }
+
+    private static class CsvRows implements RowSource {
+        private final BufferedReader reader;
+        private final String[] header;
+        private long line;
+
+        CsvRows(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            String first = reader.readLine();
+            if (first == null) throw new IOException("Empty CSV file");
+            line = 1;
+            List<String> names = split(first.startsWith("\uFEFF") ? first.substring(1) : first);
+            header = new String[names.size()];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = names.get(i).trim();
+            }
+        }
+
+        @Override
+        public List<Row> next(int max) throws IOException {
+            List<Row> rows = new ArrayList<>(max);
+            String text;
+            while (rows.size() < max && (text = reader.readLine()) != null) {
+                long start = ++line;
+                // A quoted field may run over several lines
+                while (unbalancedQuotes(text)) {
+                    String more = reader.readLine();
+                    if (more == null) break;
+                    line++;
+                    text = text + "\n" + more;
+                }
+                if (!text.trim().isEmpty()) rows.add(new Row(start, text));
+            }
+            return rows.isEmpty() ? null : rows;
+        }
+
+        @Override
+        public Map<String, Object> fields(String text) {
+            List<String> values = split(text);
+            if (values.size() > header.length) {
+                throw new IllegalArgumentException("Expected " + header.length + " columns, found " + values.size());
+            }
+            Map<String, Object> fields = new HashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                fields.put(header[i], values.get(i));
+            }
+            return fields;
+        }
+
+        private static boolean unbalancedQuotes(String text) {
+            int quotes = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') quotes++;
+            }
+            return quotes % 2 != 0;
+        }
+
+        // RFC 4180: fields may be quoted, with "" standing for a quote inside
+        private static List<String> split(String text) {
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        value.append(c);
+                    } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+
+    // Finds each top-level object by tracking brackets and strings, without
+    // parsing it, so a large array never has to be read whole
+    private static class JsonRows implements RowSource {
+        private final Reader reader;
+        private long line = 1;
+
+        JsonRows(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public List<Row> next(int max) throws IOException {
+            List<Row> rows = new ArrayList<>(max);
+            Row row;
+            while (rows.size() < max && (row = nextObject()) != null) {
+                rows.add(row);
+            }
+            return rows.isEmpty() ? null : rows;
+        }
+
+        // Numbers come back as their source text, so an amount may be 12.50 or "12.50"
+        @Override
+        public Map<String, Object> fields(String text) {
+            return Json.parseObject(text);
+        }
+
+        private Row nextObject() throws IOException {
+            int c;
+            // Skip the array brackets, commas and whitespace between objects
+            while ((c = read()) != -1 && c != '{') {
+                if (c != '[' && c != ']' && c != ',' && !Character.isWhitespace(c)) {
+                    throw new IOException("Unexpected '" + (char) c + "' on line " + line);
+                }
+            }
+            if (c == -1) return null;
+
+            long start = line;
+            StringBuilder text = new StringBuilder().append('{');
+            int depth = 1;
+            boolean inString = false;
+            while (depth > 0 && (c = read()) != -1) {
+                text.append((char) c);
+                if (inString) {
+                    if (c == '\\') {
+                        int escaped = read();
+                        if (escaped != -1) text.append((char) escaped);
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            // A truncated last object is handed on and rejected by the parser
+            return new Row(start, text.toString());
+        }
+
+        private int read() throws IOException {
+            int c = reader.read();
+            if (c == '\n') line++;
+            return c;
+        }
+    }
+}
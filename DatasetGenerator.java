@@ -0,0 +1,245 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.util.*;
+
+// Writes a synthetic users.txt, groups.txt and expenses.txt in the formats
+// FileManager reads, for load testing. Everything streams straight to disk:
+// a group's members are re-derived from its own seed whenever an expense
+// needs them, so memory stays flat however many rows are written. The same
+// seed always produces the same files.
+//
+//   java DatasetGenerator [--out data] [--seed 42] [--users 10000]
+//       [--groups 2000] [--expenses 1000000] [--max-group-size 50]
+//       [--group-size-exponent 2.0] [--group-activity-exponent 1.1]
+//       [--participant-exponent 1.5] [--category-exponent 1.2]
+//       [--date-exponent 0.8] [--months 24] [--end 12/2024]
+//       [--personal-share 0.3]
+//
+// Sizes, participant counts, category picks, group activity and how far back
+// a date falls all follow bounded power laws; a larger exponent means a more
+// skewed mix. Load the result with "Main --import-text", or point
+// -Dsmartsplit.dataDir at the output directory.
+public class DatasetGenerator {
+    // Most common first, so the power law favours the head of the list
+    private static final String[] CATEGORIES = {"Food", "Travel", "Entertainment", "Utilities", "Rent"};
+    private static final int MAX_PERSONAL_PARTICIPANTS = 6;
+    private static final int PROGRESS_EVERY = 1_000_000;
+
+    private final long seed;
+    private final int users;
+    private final int groups;
+    private final long expenses;
+    private final int maxGroupSize;
+    private final double groupSizeExponent;
+    private final double groupActivityExponent;
+    private final double participantExponent;
+    private final double categoryExponent;
+    private final double dateExponent;
+    private final int months;
+    private final YearMonth end;
+    private final double personalShare;
+
+    private DatasetGenerator(Map<String, String> options) {
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        this.groups = Integer.parseInt(options.getOrDefault("groups", "2000"));
+        this.expenses = Long.parseLong(options.getOrDefault("expenses", "1000000"));
+        this.maxGroupSize = Integer.parseInt(options.getOrDefault("max-group-size", "50"));
+        this.groupSizeExponent = Double.parseDouble(options.getOrDefault("group-size-exponent", "2.0"));
+        this.groupActivityExponent = Double.parseDouble(options.getOrDefault("group-activity-exponent", "1.1"));
+        this.participantExponent = Double.parseDouble(options.getOrDefault("participant-exponent", "1.5"));
+        this.categoryExponent = Double.parseDouble(options.getOrDefault("category-exponent", "1.2"));
+        this.dateExponent = Double.parseDouble(options.getOrDefault("date-exponent", "0.8"));
+        this.months = Integer.parseInt(options.getOrDefault("months", "24"));
+        this.end = YearMonth.parse(options.getOrDefault("end", "12/2024"),
+                java.time.format.DateTimeFormatter.ofPattern("MM/yyyy"));
+        this.personalShare = Double.parseDouble(options.getOrDefault("personal-share", "0.3"));
+
+        if (users < 2) throw new IllegalArgumentException("Need at least 2 users");
+        if (maxGroupSize < 2) throw new IllegalArgumentException("max-group-size must be at least 2");
+        if (months < 1) throw new IllegalArgumentException("months must be at least 1");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+
+        Path out = Paths.get(options.getOrDefault("out", "data"));
+        Files.createDirectories(out);
+        DatasetGenerator generator = new DatasetGenerator(options);
+        long start = System.nanoTime();
+        generator.writeUsers(out.resolve("users.txt"));
+        generator.writeGroups(out.resolve("groups.txt"));
+        generator.writeExpenses(out.resolve("expenses.txt"));
+        System.out.printf("\033[1;32mWrote %,d users, %,d groups and %,d expenses to %s in %.1fs\n",
+                generator.users, generator.groups, generator.expenses, out, (System.nanoTime() - start) / 1e9);
+    }
+
+    private void writeUsers(Path file) throws IOException {
+        String categories = String.join(",", CATEGORIES);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int u = 0; u < users; u++) {
+                writer.write(username(u) + "|password" + u + "|User " + u + "|" + username(u) + "@example.com|₹|" + categories);
+                writer.newLine();
+            }
+        }
+    }
+
+    private void writeGroups(Path file) throws IOException {
+        YearMonth first = end.minusMonths(months - 1);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int g = 0; g < groups; g++) {
+                int[] members = members(g);
+                StringBuilder line = new StringBuilder();
+                line.append(groupId(g)).append("|Group ").append(g).append("|Synthetic group ").append(g)
+                        .append('|').append(username(members[0])).append('|');
+                for (int m = 0; m < members.length; m++) {
+                    if (m > 0) line.append(',');
+                    line.append(username(members[m]));
+                }
+                line.append('|').append(String.format("%d-%02d-01 09:00", first.getYear(), first.getMonthValue()));
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    private void writeExpenses(Path file) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder line = new StringBuilder(256);
+            for (long i = 0; i < expenses; i++) {
+                int[] participants;
+                String groupId = "";
+                if (groups == 0 || random.nextDouble() < personalShare) {
+                    participants = distinctUsers(random, 1 + powerLaw(random, MAX_PERSONAL_PARTICIPANTS - 1, participantExponent));
+                } else {
+                    // Busy groups get most of the traffic
+                    int g = powerLaw(random, groups, groupActivityExponent) - 1;
+                    int[] members = members(g);
+                    participants = sample(random, members, 1 + powerLaw(random, members.length - 1, participantExponent));
+                    groupId = groupId(g);
+                }
+                int payer = participants[random.nextInt(participants.length)];
+
+                // Months back from the end; recent months are the busiest
+                YearMonth month = end.minusMonths(powerLaw(random, months, dateExponent) - 1);
+                String category = CATEGORIES[powerLaw(random, CATEGORIES.length, categoryExponent) - 1];
+                long amount = 100L * powerLaw(random, 50_000, 1.3) + random.nextInt(100);
+
+                line.setLength(0);
+                line.append(category).append(" expense ").append(i).append("|Synthetic|")
+                        .append(Money.format(amount)).append('|').append(username(payer)).append('|');
+                for (int p = 0; p < participants.length; p++) {
+                    if (p > 0) line.append(',');
+                    line.append(username(participants[p]));
+                }
+                line.append('|').append(month.getYear());
+                twoDigits(line.append('-'), month.getMonthValue());
+                twoDigits(line.append('-'), 1 + random.nextInt(month.lengthOfMonth()));
+                twoDigits(line.append(' '), random.nextInt(24));
+                twoDigits(line.append(':'), random.nextInt(60));
+                line.append('|').append(category).append('|').append(groupId).append('|')
+                        .append(new UUID(random.nextLong(), random.nextLong()));
+                writer.write(line.toString());
+                writer.newLine();
+
+                if ((i + 1) % PROGRESS_EVERY == 0) {
+                    System.out.printf("\033[0;37m%,d expenses written\n", i + 1);
+                }
+            }
+        }
+    }
+
+    // A group's size and members come from its own seed, so they can be
+    // rebuilt on demand instead of kept in memory
+    private int[] members(int group) {
+        Random random = new Random(mix(seed, group));
+        int size = Math.min(users, 1 + powerLaw(random, maxGroupSize - 1, groupSizeExponent));
+        return distinctUsers(random, size);
+    }
+
+    private String groupId(int group) {
+        Random random = new Random(mix(~seed, group));
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private int[] distinctUsers(Random random, int count) {
+        count = Math.min(count, users);
+        int[] chosen = new int[count];
+        for (int i = 0; i < count; i++) {
+            int candidate;
+            do {
+                candidate = random.nextInt(users);
+            } while (contains(chosen, i, candidate));
+            chosen[i] = candidate;
+        }
+        return chosen;
+    }
+
+    // Partial Fisher-Yates over a copy of the members
+    private static int[] sample(Random random, int[] from, int count) {
+        int[] pool = from.clone();
+        count = Math.min(count, pool.length);
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(pool.length - i);
+            int swap = pool[i];
+            pool[i] = pool[j];
+            pool[j] = swap;
+        }
+        return Arrays.copyOf(pool, count);
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    // Random seeds that differ in a few low bits start out correlated, so
+    // per-group seeds go through the SplitMix64 finaliser first
+    private static long mix(long seed, long value) {
+        long z = seed + (value + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // A value in [1, n] with P(k) roughly proportional to k^-exponent, by
+    // inverting the CDF of a continuous power law bounded to [1, n + 1)
+    static int powerLaw(Random random, int n, double exponent) {
+        if (n <= 1) return 1;
+        double u = random.nextDouble();
+        double x;
+        if (Math.abs(exponent - 1.0) < 1e-9) {
+            x = Math.pow(n + 1.0, u);
+        } else {
+            double a = 1.0 - exponent;
+            x = Math.pow(u * (Math.pow(n + 1.0, a) - 1.0) + 1.0, 1.0 / a);
+        }
+        return (int) Math.min(n, Math.max(1, (long) x));
+    }
+
+    // Same as %02d, without a Formatter per row
+    private static void twoDigits(StringBuilder out, int value) {
+        if (value < 10) out.append('0');
+        out.append(value);
+    }
+
+    private static String username(int user) {
+        return "user" + user;
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+// A directory of named text files behind ExpenseEventLog. Appends are queued
+// and go out with flush(), in order, with one write plus fsync per file they
+// touch; onAppend is told about each so the owner can schedule that flush.
+public class EventStore implements ExpenseEventLog.Store {
+    private final Path directory;
+    private final Runnable onAppend;
+    // Queued appends in order; consecutive ones to the same file share an entry
+    private final List<Pending> pending = new ArrayList<>();
+    // Held while files are written, so batches land in order
+    private final Object ioLock = new Object();
+
+    public EventStore(Path directory, Runnable onAppend) {
+        this.directory = directory;
+        this.onAppend = onAppend;
+    }
+
+    @Override
+    public List<String> names() {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return names;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return names;
+    }
+
+    @Override
+    public List<String> read(String name, String stopAt) {
+        flush();
+        Path file = directory.resolve(name);
+        if (!Files.exists(file)) return null;
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (line.equals(stopAt)) break;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+
+    @Override
+    public void append(String name, List<String> lines) {
+        synchronized (pending) {
+            Pending last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (last == null || !last.name.equals(name)) {
+                last = new Pending(name);
+                pending.add(last);
+            }
+            for (String line : lines) {
+                last.text.append(line).append('\n');
+                last.lines++;
+            }
+        }
+        onAppend.run();
+    }
+
+    @Override
+    public void replace(String name, List<String> lines) {
+        flush();
+        try {
+            Files.createDirectories(directory);
+            AtomicFiles.write(directory.resolve(name), out -> {
+                for (String line : lines) {
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        flush();
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes everything queued. The queue is only held to swap it out, since
+    // appends arrive under ExpenseManager's write lock. On failure the partial
+    // write is cut off and what is left goes back in front.
+    public void flush() {
+        synchronized (ioLock) {
+            List<Pending> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) return;
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+
+            long start = System.nanoTime();
+            int written = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Pending file = batch.get(i);
+                try {
+                    write(file);
+                    written += file.lines;
+                } catch (IOException e) {
+                    Metrics.increment("io.errors");
+                    e.printStackTrace();
+                    synchronized (pending) {
+                        pending.addAll(0, batch.subList(i, batch.size()));
+                    }
+                    break;
+                }
+            }
+            Metrics.record("io.events.append", System.nanoTime() - start);
+            Metrics.increment("io.events.records", written);
+        }
+    }
+
+    private void write(Pending file) throws IOException {
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(directory.resolve(file.name), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long sizeBefore = channel.size();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(file.text.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                channel.truncate(sizeBefore);
+                throw e;
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final String name;
+        private final StringBuilder text = new StringBuilder();
+        private int lines;
+
+        Pending(String name) {
+            this.name = name;
+        }
+    }
+}
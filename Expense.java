@@ -1,75 +1,151 @@
-import java.util.Arrays;
-import java.util.*;
-
-public class Expense {
-    private String expenseId;
-    private String name;
-    private String description;
-    private double amount;
-    private String payer;
-    private String[] participants;
-    private String date;
-    private String category;
-    private String groupId;
-
-    public Expense(String name, String description, double amount, String payer,
-                   String[] participants, String date, String category, String groupId) {
-        this.expenseId = UUID.randomUUID().toString();
-        this.name = name;
-        this.description = description;
-        this.amount = amount;
-        this.payer = payer;
-        this.participants = participants;
-        this.date = date;
-        this.category = category;
-        this.groupId = groupId;
-    }
-
-    // Getters
-    public String getExpenseId() { return expenseId; }
-    public String getName() { return name; }
-    public String getDescription() { return description; }
-    public double getAmount() { return amount; }
-    public String getPayer() { return payer; }
-    public String[] getParticipants() { return participants; }
-    public String getDate() { return date; }
-    public String getCategory() { return category; }
-    public String getGroupId() { return groupId; }
-
-    // Setters
-    public void setName(String name) { this.name = name; }
-    public void setDescription(String description) { this.description = description; }
-    public void setAmount(double amount) { this.amount = amount; }
-    public void setCategory(String category) { this.category = category; }
-    public void setGroupId(String groupId) { this.groupId = groupId; }
-
-    @Override
-    public String toString() {
-        return String.format(
-                "Expense [ID: %s, Name: %s, Amount: %.2f, Payer: %s, Date: %s, Category: %s]",
-                expenseId, name, amount, payer, date, category
-        );
-    }
-
-    // In Expense.java
-    public String getTitle() {
-        return this.name;  // Or whatever field represents the title
-    }
-
-    public String getTimestamp() {
-        return this.date;  // Or whatever field represents the timestamp
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Expense expense = (Expense) o;
-        return expenseId.equals(expense.expenseId);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(expenseId);
-    }
-}
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.*;
+
+public class Expense {
+    // Minute value for a date that isn't "yyyy-MM-dd HH:mm"
+    public static final long NO_MINUTE = Long.MIN_VALUE;
+
+    private String expenseId;
+    private String name;
+    private String description;
+    private long amount; // minor units
+    // Users and groups are held as SymbolTable ids; the group is -1 when there is none
+    private int payer;
+    private int[] participants;
+    private String date;
+    private long minute; // date as minutes since the epoch, read as UTC; parsed once
+    private String category;
+    private int groupId;
+    private long sequence; // position in ExpenseManager's ordering
+
+    public Expense(String name, String description, long amount, String payer,
+                   String[] participants, String date, String category, String groupId) {
+        this(UUID.randomUUID().toString(), name, description, amount, payer,
+                participants, date, category, groupId);
+    }
+
+    // Used when loading persisted expenses so the id survives a restart
+    public Expense(String expenseId, String name, String description, long amount, String payer,
+                   String[] participants, String date, String category, String groupId) {
+        this.expenseId = expenseId;
+        this.name = name;
+        this.description = description;
+        this.amount = amount;
+        this.payer = SymbolTable.USERS.intern(payer);
+        this.participants = new int[participants.length];
+        for (int i = 0; i < participants.length; i++) {
+            this.participants[i] = SymbolTable.USERS.intern(participants[i]);
+        }
+        this.date = date;
+        this.minute = parseMinute(date);
+        this.category = category;
+        setGroupId(groupId);
+    }
+
+    // Getters
+    public String getExpenseId() { return expenseId; }
+    public String getName() { return name; }
+    public String getDescription() { return description; }
+    public long getAmount() { return amount; }
+    public String getPayer() { return SymbolTable.USERS.name(payer); }
+    public String getDate() { return date; }
+    public long getMinute() { return minute; }
+    public String getCategory() { return category; }
+    public String getGroupId() { return groupId >= 0 ? SymbolTable.GROUPS.name(groupId) : null; }
+
+    // Id-based accessors for hot paths; the array must not be modified
+    public int getPayerId() { return payer; }
+    public int[] getParticipantIds() { return participants; }
+
+    long getSequence() { return sequence; }
+    void setSequence(long sequence) { this.sequence = sequence; }
+
+    public String[] getParticipants() {
+        String[] names = new String[participants.length];
+        for (int i = 0; i < participants.length; i++) {
+            names[i] = SymbolTable.USERS.name(participants[i]);
+        }
+        return names;
+    }
+
+    public boolean hasParticipant(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        for (int participant : participants) {
+            if (participant == userId) return true;
+        }
+        return false;
+    }
+
+    // Setters
+    public void setName(String name) { this.name = name; }
+    public void setDescription(String description) { this.description = description; }
+    public void setAmount(long amount) { this.amount = amount; }
+    public void setCategory(String category) { this.category = category; }
+    public void setGroupId(String groupId) {
+        this.groupId = groupId != null ? SymbolTable.GROUPS.intern(groupId) : -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Expense [ID: %s, Name: %s, Amount: %s, Payer: %s, Date: %s, Category: %s]",
+                expenseId, name, Money.format(amount), getPayer(), date, category
+        );
+    }
+
+    // In Expense.java
+    public String getTitle() {
+        return this.name;  // Or whatever field represents the title
+    }
+
+    public String getTimestamp() {
+        return this.date;  // Or whatever field represents the timestamp
+    }
+
+    // Reads "yyyy-MM-dd HH:mm" by hand, since every loaded expense comes
+    // through here; anything else, including impossible dates, is NO_MINUTE
+    static long parseMinute(String date) {
+        if (date == null || date.length() != 16 || date.charAt(4) != '-' || date.charAt(7) != '-'
+                || date.charAt(10) != ' ' || date.charAt(13) != ':') {
+            return NO_MINUTE;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        int hour = digits(date, 11, 13);
+        int minute = digits(date, 14, 16);
+        if (year < 1 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return NO_MINUTE;
+        }
+        try {
+            return LocalDate.of(year, month, day).toEpochDay() * 1440 + hour * 60 + minute;
+        } catch (DateTimeException e) {
+            return NO_MINUTE;
+        }
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Expense expense = (Expense) o;
+        return expenseId.equals(expense.expenseId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(expenseId);
+    }
+}
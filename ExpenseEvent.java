@@ -0,0 +1,114 @@
+// One change to an expense or group, as it happened. Events are never edited:
+// an edit carries both versions and a removal carries what was removed, so
+// the history can be audited and balances rebuilt from it. Old ones are only
+// dropped a whole block at a time, past ExpenseEventLog's retention window.
+// Records are held in FileManager's one-line text form.
+public final class ExpenseEvent {
+    public enum Type {
+        EXPENSE_ADDED, EXPENSE_UPDATED, EXPENSE_REMOVED,
+        GROUP_CREATED, GROUP_UPDATED, GROUP_REMOVED
+    }
+
+    private final long sequence;
+    private final long timestamp; // epoch millis
+    private final Type type;
+    private final String subjectId; // expense or group id
+    private final String before; // null if unknown or nothing came before
+    private final String after; // null for removals
+
+    // Each expense version's effect on balances, worked out once so replays
+    // never parse; null for group events and missing versions
+    private final Shares removed;
+    private final Shares added;
+
+    ExpenseEvent(long sequence, long timestamp, Type type, String subjectId,
+                 String before, String after, Shares removed, Shares added) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.subjectId = subjectId;
+        this.before = before;
+        this.after = after;
+        this.removed = removed;
+        this.added = added;
+    }
+
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public Type getType() { return type; }
+    public String getSubjectId() { return subjectId; }
+    public String getBefore() { return before; }
+    public String getAfter() { return after; }
+
+    public boolean isExpenseEvent() {
+        return type == Type.EXPENSE_ADDED || type == Type.EXPENSE_UPDATED || type == Type.EXPENSE_REMOVED;
+    }
+
+    Shares getRemoved() { return removed; }
+    Shares getAdded() { return added; }
+
+    // sequence|timestamp|type|subject|length of before (-1 if none)|before, then after.
+    // Records hold '|' themselves, hence the length rather than another separator.
+    String format() {
+        StringBuilder line = new StringBuilder(64 + (before != null ? before.length() : 0)
+                + (after != null ? after.length() : 0));
+        line.append(sequence).append('|').append(timestamp).append('|').append(type.name()).append('|')
+                .append(FileManager.escape(subjectId)).append('|').append(before != null ? before.length() : -1).append('|');
+        if (before != null) line.append(before);
+        if (after != null) line.append(after);
+        return line.toString();
+    }
+
+    // Null for a line that doesn't parse, such as one torn by a crash
+    static ExpenseEvent parse(String line) {
+        String[] head = line.split("\\|", 6);
+        if (head.length != 6) return null;
+        try {
+            long sequence = Long.parseLong(head[0]);
+            long timestamp = Long.parseLong(head[1]);
+            Type type = Type.valueOf(head[2]);
+            String subjectId = FileManager.unescape(head[3]);
+            int beforeLength = Integer.parseInt(head[4]);
+            String rest = head[5];
+            if (beforeLength > rest.length()) return null;
+            String before = beforeLength >= 0 ? rest.substring(0, beforeLength) : null;
+            String after = rest.substring(Math.max(0, beforeLength));
+            if (after.isEmpty()) after = null;
+
+            if (type == Type.GROUP_CREATED || type == Type.GROUP_UPDATED || type == Type.GROUP_REMOVED) {
+                return new ExpenseEvent(sequence, timestamp, type, subjectId, before, after, null, null);
+            }
+            return new ExpenseEvent(sequence, timestamp, type, subjectId, before, after,
+                    Shares.of(before), Shares.of(after));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %tF %<tR %s %s", sequence, timestamp, type, subjectId);
+    }
+
+    // What one expense adds to each user's balance and to its group's
+    static final class Shares {
+        private final String groupId;
+        private final Ledger byUser;
+
+        Shares(String groupId, Ledger byUser) {
+            this.groupId = groupId;
+            this.byUser = byUser;
+        }
+
+        String getGroupId() { return groupId; }
+        Ledger getByUser() { return byUser; }
+
+        static Shares of(Expense expense) {
+            return expense != null ? new Shares(expense.getGroupId(), ExpenseManager.shares(expense)) : null;
+        }
+
+        private static Shares of(String record) {
+            return record != null ? of(FileManager.parseExpense(record)) : null;
+        }
+    }
+}
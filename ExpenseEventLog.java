@@ -0,0 +1,799 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+// Every change to expenses and groups, in order, with balances projected from
+// them. Events are kept in blocks of checkpointInterval. Each block starts
+// with a checkpoint of just the balances that changed during the block before
+// it, so a balance as of any moment is its value at the start of that
+// moment's block plus at most one block of events. A log starts from a base:
+// the full balances at the start of its first block, which moments before
+// that block see.
+//
+// With a Store, only the block being filled is held in memory. Closed blocks
+// stay on disk with a summary (size, last moment, the hashes of their subject
+// ids) and are read back a couple at a time when a query reaches them, so
+// opening a log reads checkpoints and summaries rather than every event.
+// Blocks that ended before the retention window are folded into the base.
+// Without a Store, only the last MEMORY_BLOCKS blocks are kept and older
+// ones are folded into the base the same way.
+//
+// Store layout:
+//   base          S|<first block>|<next sequence>|<timestamp>, then balances
+//   <n>.log       S|<first sequence>|<timestamp>, changed balances, D, events
+//   <n>.idx       I|<events>|<last timestamp>, then H|<subject hashes>
+// with balances as U|<user>|<balance> and G|<group>, G|<group>|<user>|<balance>.
+//
+// Not thread-safe for writes: ExpenseManager calls it under its own lock.
+// Queries may run alongside each other.
+public class ExpenseEventLog {
+    private static final String BASE = "base";
+    private static final String HEADER_END = "D";
+    private static final int CACHED_BLOCKS = 2;
+    private static final int MEMORY_BLOCKS = 4;
+
+    private final int checkpointInterval;
+    private final Store store; // null keeps every block in memory
+    private final long retentionMillis; // 0 keeps every block
+
+    // Balances at the start of the first block, and after every event so far
+    private Projection base;
+    private final Projection current;
+    // Oldest first; the last one takes new events until it is closed
+    private final List<Block> blocks = new ArrayList<>();
+    // Changed since the last block started; their values open the next one
+    private final Ledger touchedUsers = new Ledger();
+    private final Set<String> touchedGroups = new HashSet<>();
+    private int nextBlock;
+    private long nextSequence;
+    private long lastTimestamp;
+    private long eventCount;
+    // Event lines of closed blocks read back from the store, least recently
+    // used first; parsed only as far as a query needs
+    private final LinkedHashMap<Integer, List<String>> cache = new LinkedHashMap<>(8, 0.75f, true);
+
+    // Named text files: whole ones replaced at once, others appended to in
+    // order. See EventStore.
+    public interface Store {
+        List<String> names();
+
+        // Lines up to and including the first one equal to stopAt, or every
+        // line if stopAt is null or never comes; null if there is no such file
+        List<String> read(String name, String stopAt);
+
+        // May be queued, but lands in order
+        void append(String name, List<String> lines);
+
+        void replace(String name, List<String> lines);
+
+        void delete(String name);
+    }
+
+    public ExpenseEventLog(int checkpointInterval) {
+        this(checkpointInterval, null, 0, new Projection());
+    }
+
+    // Starts from existing balances: user balances by id, group balances by group id
+    public ExpenseEventLog(int checkpointInterval, long[] userBalances, Map<String, Ledger> groupBalances) {
+        this(checkpointInterval, null, 0, new Projection(userBalances, groupBalances));
+    }
+
+    private ExpenseEventLog(int checkpointInterval, Store store, long retentionMillis, Projection base) {
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.checkpointInterval = checkpointInterval;
+        this.store = store;
+        this.retentionMillis = retentionMillis;
+        this.base = base;
+        this.current = base.copy();
+    }
+
+    // Opens the log saved in store, or starts one there from these balances.
+    // Reads the base, each block's checkpoint and summary, and the events of
+    // the last block only. The balances it ends at may differ from these; see
+    // matches and resync.
+    public static ExpenseEventLog open(Store store, int checkpointInterval, long retentionMillis,
+                                       long[] userBalances, Map<String, Ledger> groupBalances) {
+        return open(store, checkpointInterval, retentionMillis, userBalances, groupBalances, null);
+    }
+
+    // As above; when store holds nothing yet, earlier supplies the events of a
+    // log kept before it, which started from no balances. They are copied in
+    // as its first blocks instead of starting from the balances given.
+    public static ExpenseEventLog open(Store store, int checkpointInterval, long retentionMillis,
+                                       long[] userBalances, Map<String, Ledger> groupBalances,
+                                       Supplier<List<ExpenseEvent>> earlier) {
+        List<String> saved = store.read(BASE, null);
+        long[] header = saved != null && !saved.isEmpty() ? parseHeader(saved.get(0), "S", 4) : null;
+        if (header == null) {
+            // Nothing saved, or a base no longer readable: start over from the
+            // earlier events if there are any, otherwise from the balances given
+            List<ExpenseEvent> events = earlier != null ? earlier.get() : List.of();
+            ExpenseEventLog log = new ExpenseEventLog(checkpointInterval, store, retentionMillis,
+                    events.isEmpty() ? new Projection(userBalances, groupBalances) : new Projection());
+            for (String name : store.names()) {
+                if (blockNumber(name) >= 0) store.delete(name);
+            }
+            log.lastTimestamp = events.isEmpty() ? System.currentTimeMillis() : events.get(0).getTimestamp();
+            log.saveBase();
+            for (ExpenseEvent event : events) {
+                // Out-of-order or repeated lines are skipped so blocks stay searchable by time
+                if (event.getSequence() < log.nextSequence || event.getTimestamp() < log.lastTimestamp) continue;
+                log.append(event);
+            }
+            if (retentionMillis > 0) log.dropBefore(System.currentTimeMillis() - retentionMillis);
+            return log;
+        }
+
+        Ledger users = new Ledger();
+        Map<String, Ledger> groups = new HashMap<>();
+        readBalances(saved, 1, users, groups);
+        ExpenseEventLog log = new ExpenseEventLog(checkpointInterval, store, retentionMillis,
+                new Projection(users, groups));
+        log.nextBlock = (int) header[1];
+        log.nextSequence = header[2];
+        log.lastTimestamp = header[3];
+        log.load();
+        if (retentionMillis > 0) log.dropBefore(System.currentTimeMillis() - retentionMillis);
+        return log;
+    }
+
+    private void load() {
+        TreeSet<Integer> numbers = new TreeSet<>();
+        for (String name : store.names()) {
+            int number = blockNumber(name);
+            if (number < 0) continue;
+            if (number < nextBlock) {
+                // Left behind by a compaction cut short
+                store.delete(name);
+            } else {
+                numbers.add(number);
+            }
+        }
+
+        for (int number : numbers) {
+            boolean last = number == numbers.last();
+            Block block = readBlockHeader(number);
+            if (block == null) {
+                // A torn checkpoint ends the log: the blocks after it would
+                // start from balances it no longer holds
+                for (int rest : numbers.tailSet(number)) {
+                    store.delete(logName(rest));
+                    store.delete(indexName(rest));
+                }
+                break;
+            }
+            if (!blocks.isEmpty()) current.overlay(block.start);
+            blocks.add(block);
+            nextBlock = number + 1;
+            nextSequence = Math.max(nextSequence, block.firstSequence);
+            lastTimestamp = Math.max(lastTimestamp, block.startTimestamp);
+
+            List<String> summary = store.read(indexName(number), null);
+            boolean summarized = summary != null && readSummary(block, summary);
+            if (summarized && !last) {
+                eventCount += block.count;
+                lastTimestamp = Math.max(lastTimestamp, block.lastTimestamp);
+                continue;
+            }
+
+            // The last block's events bring the projection up to date; a block
+            // closed by a run that stopped before its summary was written gets one now
+            if (summary != null && !summarized) store.delete(indexName(number));
+            block.events = new ArrayList<>();
+            block.count = 0;
+            clearTouched();
+            for (ExpenseEvent event : readEvents(number)) {
+                add(block, event);
+            }
+            if (summarized) {
+                block.closed = true;
+                block.events = null;
+            } else if (!last) {
+                close(block);
+            }
+        }
+        if (!blocks.isEmpty()) blocks.get(0).start = null;
+    }
+
+    public ExpenseEvent expenseAdded(Expense expense) {
+        return record(ExpenseEvent.Type.EXPENSE_ADDED, expense.getExpenseId(), null, expense);
+    }
+
+    // previous is null when the old version is unknown, e.g. it was edited in place
+    public ExpenseEvent expenseUpdated(Expense previous, Expense updated) {
+        return record(ExpenseEvent.Type.EXPENSE_UPDATED, updated.getExpenseId(), previous, updated);
+    }
+
+    public ExpenseEvent expenseRemoved(Expense removed) {
+        return record(ExpenseEvent.Type.EXPENSE_REMOVED, removed.getExpenseId(), removed, null);
+    }
+
+    public ExpenseEvent groupChanged(ExpenseEvent.Type type, Group group) {
+        String record = FileManager.formatGroup(group);
+        return record(type, group.getGroupId(),
+                type == ExpenseEvent.Type.GROUP_REMOVED ? record : null,
+                type == ExpenseEvent.Type.GROUP_REMOVED ? null : record);
+    }
+
+    private ExpenseEvent record(ExpenseEvent.Type type, String subjectId, Expense before, Expense after) {
+        return record(type, subjectId,
+                before != null ? FileManager.formatExpense(before) : null,
+                after != null ? FileManager.formatExpense(after) : null,
+                ExpenseEvent.Shares.of(before), ExpenseEvent.Shares.of(after));
+    }
+
+    private ExpenseEvent record(ExpenseEvent.Type type, String subjectId, String before, String after) {
+        return record(type, subjectId, before, after, null, null);
+    }
+
+    // Timestamps never go backwards, so the log stays searchable by time
+    // even if the clock is set back
+    private ExpenseEvent record(ExpenseEvent.Type type, String subjectId, String before, String after,
+                                ExpenseEvent.Shares removed, ExpenseEvent.Shares added) {
+        long now = Math.max(System.currentTimeMillis(), lastTimestamp);
+        return append(new ExpenseEvent(nextSequence, now, type, subjectId, before, after, removed, added));
+    }
+
+    private ExpenseEvent append(ExpenseEvent event) {
+        Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (block == null || block.closed || block.count >= checkpointInterval) {
+            block = startBlock(event.getTimestamp());
+        }
+        add(block, event);
+        if (store != null) store.append(block.logName, List.of(event.format()));
+        return event;
+    }
+
+    private void add(Block block, ExpenseEvent event) {
+        block.events.add(event);
+        block.count++;
+        block.lastTimestamp = event.getTimestamp();
+        lastTimestamp = Math.max(lastTimestamp, event.getTimestamp());
+        nextSequence = Math.max(nextSequence, event.getSequence() + 1);
+        eventCount++;
+        current.apply(event.getRemoved(), -1, touchedUsers, touchedGroups);
+        current.apply(event.getAdded(), 1, touchedUsers, touchedGroups);
+    }
+
+    // Closes the last block and starts one whose checkpoint holds what changed
+    // in it; the first block starts from the base instead
+    private Block startBlock(long timestamp) {
+        Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (last != null && !last.closed) close(last);
+
+        Delta start = last != null ? takeTouched() : null;
+        if (last == null) clearTouched();
+        Block block = new Block(nextBlock++, nextSequence, timestamp, start);
+        block.events = new ArrayList<>();
+        blocks.add(block);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        if (store != null) {
+            List<String> header = new ArrayList<>();
+            header.add("S|" + block.firstSequence + "|" + block.startTimestamp);
+            if (start != null) start.writeTo(header);
+            header.add(HEADER_END);
+            store.append(block.logName, header);
+        }
+        if (retentionMillis > 0) dropBefore(timestamp - retentionMillis);
+        if (store == null && blocks.size() > MEMORY_BLOCKS) drop(blocks.size() - MEMORY_BLOCKS);
+        return block;
+    }
+
+    private void close(Block block) {
+        block.closed = true;
+        block.subjects = subjectHashes(block.events);
+        if (store == null) return;
+
+        StringBuilder hashes = new StringBuilder("H|");
+        for (int i = 0; i < block.subjects.length; i++) {
+            if (i > 0) hashes.append(',');
+            hashes.append(block.subjects[i]);
+        }
+        store.append(indexName(block.number), List.of("I|" + block.count + "|" + block.lastTimestamp,
+                hashes.toString()));
+        block.events = null;
+    }
+
+    // Makes the projection match balances the log could not account for (an
+    // expense edited in place with no record of its old version, or events
+    // lost with a torn write), in a new block so that moments from now on
+    // start from them
+    public void resync(long[] userBalances, Map<String, Ledger> groupBalances) {
+        if (blocks.isEmpty()) {
+            current.reset(userBalances, groupBalances);
+            base = current.copy();
+            if (store != null) saveBase();
+            return;
+        }
+        for (int userId = 0; userId < Math.max(current.users.length, userBalances.length); userId++) {
+            long expected = userId < userBalances.length ? userBalances[userId] : 0;
+            if (current.user(userId) != expected) touchedUsers.add(userId, 0);
+        }
+        Set<String> groupIds = new HashSet<>(current.groups.keySet());
+        groupIds.addAll(groupBalances.keySet());
+        for (String groupId : groupIds) {
+            Ledger expected = groupBalances.getOrDefault(groupId, new Ledger());
+            if (!current.group(groupId).sameBalances(expected)) touchedGroups.add(groupId);
+        }
+        current.reset(userBalances, groupBalances);
+        startBlock(Math.max(System.currentTimeMillis(), lastTimestamp));
+    }
+
+    // Folds every block that ended at or before cutoff into the base
+    public void dropBefore(long cutoff) {
+        int count = blockAt(cutoff);
+        if (count > 0) drop(count);
+    }
+
+    // Folds the oldest count blocks into the base; at least one block stays
+    private void drop(int count) {
+        Projection start = base.copy();
+        for (int i = 1; i <= count; i++) {
+            start.overlay(blocks.get(i).start);
+        }
+        base = start;
+        List<Block> dropped = new ArrayList<>(blocks.subList(0, count));
+        blocks.subList(0, count).clear();
+        blocks.get(0).start = null;
+        for (Block block : dropped) {
+            eventCount -= block.count;
+        }
+        if (store == null) return;
+
+        // The base names the first block kept, so files left by a crash
+        // before they are deleted are dropped on the next open
+        saveBase();
+        for (Block block : dropped) {
+            store.delete(block.logName);
+            store.delete(indexName(block.number));
+            synchronized (cache) {
+                cache.remove(block.number);
+            }
+        }
+    }
+
+    private void saveBase() {
+        Block first = blocks.isEmpty() ? null : blocks.get(0);
+        List<String> lines = new ArrayList<>();
+        lines.add("S|" + (first != null ? first.number : nextBlock)
+                + "|" + (first != null ? first.firstSequence : nextSequence)
+                + "|" + (first != null ? first.startTimestamp : lastTimestamp));
+        base.writeTo(lines);
+        store.replace(BASE, lines);
+    }
+
+    public long size() {
+        return eventCount;
+    }
+
+    // Every event about one expense or group, oldest first. Only blocks whose
+    // summary lists the subject's hash are read.
+    public List<ExpenseEvent> eventsFor(String subjectId) {
+        int hash = subjectId.hashCode();
+        List<ExpenseEvent> found = new ArrayList<>();
+        for (Block block : blocks) {
+            if (block.subjects != null && Arrays.binarySearch(block.subjects, hash) < 0) continue;
+            for (ExpenseEvent event : events(block, FileManager.escape(subjectId), Long.MAX_VALUE)) {
+                if (event.getSubjectId().equals(subjectId)) found.add(event);
+            }
+        }
+        return found;
+    }
+
+    // True when the projection after the last event matches these balances
+    public boolean matches(long[] userBalances, Map<String, Ledger> groupBalances) {
+        return current.matches(userBalances, groupBalances);
+    }
+
+    // A user's balance after every event recorded at or before timestamp
+    public long userBalanceAsOf(int userId, long timestamp) {
+        if (userId < 0) return 0;
+        int index = blockAt(timestamp);
+        if (index < 0) return base.user(userId);
+        long balance = userAtStart(index, userId);
+        String mention = FileManager.escape(SymbolTable.USERS.name(userId));
+        for (ExpenseEvent event : events(blocks.get(index), mention, timestamp)) {
+            if (event.getTimestamp() > timestamp) break;
+            balance += delta(event.getAdded(), userId) - delta(event.getRemoved(), userId);
+        }
+        return balance;
+    }
+
+    public Ledger groupBalancesAsOf(String groupId, long timestamp) {
+        int index = blockAt(timestamp);
+        if (index < 0) return base.group(groupId).copy();
+        Ledger balances = groupAtStart(index, groupId).copy();
+        for (ExpenseEvent event : events(blocks.get(index), FileManager.escape(groupId), timestamp)) {
+            if (event.getTimestamp() > timestamp) break;
+            applyToGroup(balances, groupId, event.getRemoved(), -1);
+            applyToGroup(balances, groupId, event.getAdded(), 1);
+        }
+        return balances;
+    }
+
+    // The latest checkpoint holding the user, or the base
+    private long userAtStart(int index, int userId) {
+        for (int i = index; i > 0; i--) {
+            Delta start = blocks.get(i).start;
+            int slot = Arrays.binarySearch(start.users, userId);
+            if (slot >= 0) return start.balances[slot];
+        }
+        return base.user(userId);
+    }
+
+    private Ledger groupAtStart(int index, String groupId) {
+        for (int i = index; i > 0; i--) {
+            Ledger balances = blocks.get(i).start.groups.get(groupId);
+            if (balances != null) return balances;
+        }
+        return base.group(groupId);
+    }
+
+    private static long delta(ExpenseEvent.Shares shares, int userId) {
+        return shares != null ? shares.getByUser().get(userId) : 0;
+    }
+
+    private static void applyToGroup(Ledger balances, String groupId, ExpenseEvent.Shares shares, int sign) {
+        if (shares == null || !groupId.equals(shares.getGroupId())) return;
+        shares.getByUser().forEach((userId, amount) -> balances.add(userId, sign * amount));
+    }
+
+    // The last block started at or before timestamp, or -1 if none did
+    private int blockAt(long timestamp) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks.get(mid).startTimestamp <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    // A block's events, oldest first. For a closed block on disk, only those
+    // up to timestamp whose line mentions the given (escaped) text: every
+    // expense record names its payer, participants and group, so a user's or
+    // group's events are never left out, and most lines are never parsed.
+    private List<ExpenseEvent> events(Block block, String mention, long timestamp) {
+        if (block.events != null) return block.events;
+        List<ExpenseEvent> events = new ArrayList<>();
+        for (String line : lines(block.number)) {
+            long at = timestampOf(line);
+            if (at > timestamp) break;
+            if (at < 0 || !line.contains(mention)) continue;
+            // A torn last line from a crash is skipped
+            ExpenseEvent event = ExpenseEvent.parse(line);
+            if (event != null) events.add(event);
+        }
+        return events;
+    }
+
+    private List<String> lines(int number) {
+        synchronized (cache) {
+            List<String> lines = cache.get(number);
+            if (lines == null) {
+                lines = readLines(number);
+                cache.put(number, lines);
+                Iterator<Integer> eldest = cache.keySet().iterator();
+                while (cache.size() > CACHED_BLOCKS) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return lines;
+        }
+    }
+
+    // The second field of an event line, or -1 if it has none
+    private static long timestampOf(String line) {
+        int start = line.indexOf('|') + 1;
+        int end = start > 0 ? line.indexOf('|', start) : -1;
+        if (end < 0) return -1;
+        try {
+            return Long.parseLong(line, start, end, 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Delta takeTouched() {
+        int[] users = new int[touchedUsers.size()];
+        int[] count = {0};
+        touchedUsers.forEach((userId, ignored) -> users[count[0]++] = userId);
+        Arrays.sort(users);
+        long[] balances = new long[users.length];
+        for (int i = 0; i < users.length; i++) {
+            balances[i] = current.user(users[i]);
+        }
+        Map<String, Ledger> groups = new HashMap<>();
+        for (String groupId : touchedGroups) {
+            groups.put(groupId, current.group(groupId).copy());
+        }
+        clearTouched();
+        return new Delta(users, balances, groups);
+    }
+
+    private void clearTouched() {
+        touchedUsers.clear();
+        touchedGroups.clear();
+    }
+
+    private static int[] subjectHashes(List<ExpenseEvent> events) {
+        int[] hashes = new int[events.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = events.get(i).getSubjectId().hashCode();
+        }
+        Arrays.sort(hashes);
+        int distinct = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) hashes[distinct++] = hashes[i];
+        }
+        return Arrays.copyOf(hashes, distinct);
+    }
+
+    // The checkpoint at the top of a block file, or null if it is incomplete
+    private Block readBlockHeader(int number) {
+        List<String> lines = store.read(logName(number), HEADER_END);
+        if (lines == null || lines.size() < 2 || !lines.get(lines.size() - 1).equals(HEADER_END)) return null;
+        long[] header = parseHeader(lines.get(0), "S", 3);
+        if (header == null) return null;
+
+        Ledger users = new Ledger();
+        Map<String, Ledger> groups = new HashMap<>();
+        readBalances(lines.subList(0, lines.size() - 1), 1, users, groups);
+        int[] ids = new int[users.size()];
+        long[] balances = new long[ids.length];
+        int[] count = {0};
+        users.forEach((userId, ignored) -> ids[count[0]++] = userId);
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            balances[i] = users.get(ids[i]);
+        }
+        return new Block(number, header[1], header[2], new Delta(ids, balances, groups));
+    }
+
+    private static boolean readSummary(Block block, List<String> lines) {
+        if (lines.size() != 2 || !lines.get(1).startsWith("H|")) return false;
+        long[] summary = parseHeader(lines.get(0), "I", 3);
+        if (summary == null) return false;
+        try {
+            String hashes = lines.get(1).substring(2);
+            String[] parts = hashes.isEmpty() ? new String[0] : hashes.split(",");
+            int[] subjects = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                subjects[i] = Integer.parseInt(parts[i]);
+            }
+            block.subjects = subjects;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        block.count = (int) summary[1];
+        block.lastTimestamp = summary[2];
+        block.closed = true;
+        return true;
+    }
+
+    private List<ExpenseEvent> readEvents(int number) {
+        List<ExpenseEvent> events = new ArrayList<>();
+        for (String line : readLines(number)) {
+            // A torn last line from a crash is skipped
+            ExpenseEvent event = ExpenseEvent.parse(line);
+            if (event != null) events.add(event);
+        }
+        return events;
+    }
+
+    // The lines after a block's checkpoint
+    private List<String> readLines(int number) {
+        List<String> lines = store.read(logName(number), null);
+        if (lines == null) return new ArrayList<>();
+        int end = lines.indexOf(HEADER_END);
+        return new ArrayList<>(lines.subList(end + 1, lines.size()));
+    }
+
+    // <tag>|a|b|... as numbers from index 1, or null if it doesn't parse
+    private static long[] parseHeader(String line, String tag, int fields) {
+        String[] parts = line.split("\\|");
+        if (parts.length != fields || !parts[0].equals(tag)) return null;
+        long[] values = new long[fields];
+        try {
+            for (int i = 1; i < fields; i++) {
+                values[i] = Long.parseLong(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return values;
+    }
+
+    private static void readBalances(List<String> lines, int from, Ledger users, Map<String, Ledger> groups) {
+        for (int i = from; i < lines.size(); i++) {
+            String[] parts = lines.get(i).split("\\|");
+            try {
+                if (parts[0].equals("U") && parts.length == 3) {
+                    users.add(SymbolTable.USERS.intern(FileManager.unescape(parts[1])), Long.parseLong(parts[2]));
+                } else if (parts[0].equals("G") && (parts.length == 2 || parts.length == 4)) {
+                    Ledger group = groups.computeIfAbsent(FileManager.unescape(parts[1]), k -> new Ledger());
+                    if (parts.length == 4) {
+                        group.add(SymbolTable.USERS.intern(FileManager.unescape(parts[2])), Long.parseLong(parts[3]));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                Metrics.increment("io.events.skipped");
+            }
+        }
+    }
+
+    private static void writeUser(List<String> lines, String user, long balance) {
+        lines.add("U|" + FileManager.escape(user) + "|" + balance);
+    }
+
+    private static void writeGroups(List<String> lines, Map<String, Ledger> groups) {
+        groups.forEach((groupId, balances) -> {
+            String group = FileManager.escape(groupId);
+            lines.add("G|" + group);
+            balances.forEach((userId, balance) -> {
+                if (balance != 0) {
+                    lines.add("G|" + group + "|" + FileManager.escape(SymbolTable.USERS.name(userId)) + "|" + balance);
+                }
+            });
+        });
+    }
+
+    // <number>.log or <number>.idx; -1 for any other file
+    private static int blockNumber(String name) {
+        if (!name.endsWith(".log") && !name.endsWith(".idx")) return -1;
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String logName(int number) {
+        return String.format("%08d.log", number);
+    }
+
+    private static String indexName(int number) {
+        return String.format("%08d.idx", number);
+    }
+
+    private static final class Block {
+        private final int number;
+        private final String logName;
+        private final long firstSequence;
+        private final long startTimestamp;
+        // Balances at the start that changed in the block before; null for the first block
+        private Delta start;
+        private int count;
+        private long lastTimestamp;
+        private boolean closed;
+        // Sorted hashes of the subject ids in a closed block
+        private int[] subjects;
+        // Null for a closed block on disk; see lines()
+        private List<ExpenseEvent> events;
+
+        Block(int number, long firstSequence, long startTimestamp, Delta start) {
+            this.number = number;
+            this.logName = logName(number);
+            this.firstSequence = firstSequence;
+            this.startTimestamp = startTimestamp;
+            this.start = start;
+            this.lastTimestamp = startTimestamp;
+        }
+    }
+
+    // Some users' balances, sorted by user id, and some groups' whole ledgers
+    private static final class Delta {
+        private final int[] users;
+        private final long[] balances;
+        private final Map<String, Ledger> groups;
+
+        Delta(int[] users, long[] balances, Map<String, Ledger> groups) {
+            this.users = users;
+            this.balances = balances;
+            this.groups = groups;
+        }
+
+        void writeTo(List<String> lines) {
+            for (int i = 0; i < users.length; i++) {
+                writeUser(lines, SymbolTable.USERS.name(users[i]), balances[i]);
+            }
+            writeGroups(lines, groups);
+        }
+    }
+
+    // Personal balances by user id and group balances by group id. Group
+    // balances follow each expense's group whether or not the group exists.
+    private static class Projection {
+        private long[] users;
+        private final Map<String, Ledger> groups = new HashMap<>();
+        Projection() {
+            this.users = new long[16];
+        }
+
+        Projection(long[] userBalances, Map<String, Ledger> groupBalances) {
+            this.users = new long[16];
+            reset(userBalances, groupBalances);
+        }
+
+        Projection(Ledger userBalances, Map<String, Ledger> groupBalances) {
+            this();
+            userBalances.forEach(this::set);
+            groups.putAll(groupBalances);
+        }
+
+        void reset(long[] userBalances, Map<String, Ledger> groupBalances) {
+            users = Arrays.copyOf(userBalances, Math.max(16, userBalances.length));
+            groups.clear();
+            groupBalances.forEach((groupId, balances) -> groups.put(groupId, balances.copy()));
+        }
+
+        long user(int userId) {
+            return userId >= 0 && userId < users.length ? users[userId] : 0;
+        }
+
+        Ledger group(String groupId) {
+            Ledger balances = groups.get(groupId);
+            return balances != null ? balances : new Ledger();
+        }
+
+        private void set(int userId, long balance) {
+            if (userId >= users.length) {
+                users = Arrays.copyOf(users, Math.max(userId + 1, users.length * 2));
+            }
+            users[userId] = balance;
+        }
+
+        void overlay(Delta delta) {
+            for (int i = 0; i < delta.users.length; i++) {
+                set(delta.users[i], delta.balances[i]);
+            }
+            delta.groups.forEach((groupId, balances) -> groups.put(groupId, balances.copy()));
+        }
+
+        void apply(ExpenseEvent.Shares shares, int sign, Ledger touchedUsers, Set<String> touchedGroups) {
+            if (shares == null) return;
+            Ledger group = null;
+            if (shares.getGroupId() != null) {
+                group = groups.computeIfAbsent(shares.getGroupId(), k -> new Ledger());
+                touchedGroups.add(shares.getGroupId());
+            }
+            Ledger groupBalances = group;
+            shares.getByUser().forEach((userId, amount) -> {
+                set(userId, user(userId) + sign * amount);
+                touchedUsers.add(userId, 0);
+                if (groupBalances != null) groupBalances.add(userId, sign * amount);
+            });
+        }
+
+        boolean matches(long[] userBalances, Map<String, Ledger> groupBalances) {
+            for (int userId = 0; userId < Math.max(users.length, userBalances.length); userId++) {
+                long expected = userId < userBalances.length ? userBalances[userId] : 0;
+                if (user(userId) != expected) return false;
+            }
+            for (Map.Entry<String, Ledger> entry : groupBalances.entrySet()) {
+                if (!group(entry.getKey()).sameBalances(entry.getValue())) return false;
+            }
+            return true;
+        }
+
+        void writeTo(List<String> lines) {
+            for (int userId = 0; userId < users.length; userId++) {
+                if (users[userId] != 0) writeUser(lines, SymbolTable.USERS.name(userId), users[userId]);
+            }
+            writeGroups(lines, groups);
+        }
+
+        Projection copy() {
+            Projection copy = new Projection();
+            copy.users = users.clone();
+            groups.forEach((groupId, balances) -> copy.groups.put(groupId, balances.copy()));
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only log of expense changes. Every add/update/remove becomes one line.
+// Callers only queue the line: the background thread writes whatever has built
+// up as a single write plus fsync, and folds the log into the snapshot once it
+// grows large. close() drains the queue. A batch is written straight away as
+// one framed group of lines that replay takes whole or not at all.
+public class ExpenseJournal {
+    private static final int FSYNC_BATCH = 32;
+    private static final long FSYNC_INTERVAL_MS = 200;
+    private static final long COMPACT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+
+    private static final char ADD = 'A';
+    private static final char UPDATE = 'U';
+    private static final char REMOVE = 'R';
+    // B|<count>, followed by that many records
+    private static final char BATCH = 'B';
+
+    private final Snapshot snapshot;
+    private final Path logFile;
+    private final Path compactingFile;
+    private final Object compactionLock = new Object();
+    // Held while the log file is written; taken after compactionLock, before this
+    private final Object ioLock = new Object();
+
+    // Queued records, guarded by this
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords;
+    private ScheduledExecutorService background;
+
+    // Guarded by ioLock
+    private FileChannel channel;
+
+    // Where folded state lives; FileManager supplies the binary snapshot
+    public interface Snapshot {
+        List<Expense> read() throws IOException;
+        void write(Collection<Expense> expenses) throws IOException;
+    }
+
+    public ExpenseJournal(Path logFile, Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.logFile = logFile;
+        this.compactingFile = logFile.resolveSibling(logFile.getFileName() + ".compacting");
+    }
+
+    public void appendAdd(Expense expense) {
+        append(ADD + "|" + FileManager.formatExpense(expense));
+    }
+
+    public void appendUpdate(Expense expense) {
+        append(UPDATE + "|" + FileManager.formatExpense(expense));
+    }
+
+    public void appendRemove(String expenseId) {
+        append(REMOVE + "|" + FileManager.escape(expenseId));
+    }
+
+    // Writes the batch together with anything still queued (which has to land
+    // first) as one write plus fsync. Unlike queued records a failed batch is
+    // not retried: it is cut off the log and false returned, so the caller can
+    // drop the changes.
+    public boolean writeBatch(List<ExpenseManager.Change> changes) {
+        StringBuilder frame = new StringBuilder(64 + changes.size() * 96);
+        frame.append(BATCH).append('|').append(changes.size()).append('\n');
+        for (ExpenseManager.Change change : changes) {
+            switch (change.getKind()) {
+                case ADD: frame.append(ADD).append('|').append(FileManager.formatExpense(change.getExpense())); break;
+                case UPDATE: frame.append(UPDATE).append('|').append(FileManager.formatExpense(change.getExpense())); break;
+                case REMOVE: frame.append(REMOVE).append('|').append(FileManager.escape(change.getExpenseId())); break;
+            }
+            frame.append('\n');
+        }
+
+        synchronized (ioLock) {
+            String queued;
+            int queuedRecords;
+            synchronized (this) {
+                queued = pending.toString();
+                queuedRecords = pendingRecords;
+                pending.setLength(0);
+                pendingRecords = 0;
+            }
+
+            long start = System.nanoTime();
+            long sizeBefore = -1;
+            try {
+                openChannel();
+                sizeBefore = channel.size();
+                ByteBuffer buffer = ByteBuffer.wrap((queued + frame).getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                Metrics.record("io.journal.batch", System.nanoTime() - start);
+                Metrics.increment("io.journal.records", queuedRecords + changes.size());
+                return true;
+            } catch (IOException e) {
+                Metrics.increment("io.errors");
+                e.printStackTrace();
+                truncate(sizeBefore);
+                synchronized (this) {
+                    pending.insert(0, queued);
+                    pendingRecords += queuedRecords;
+                }
+                return false;
+            }
+        }
+    }
+
+    // Reads the snapshot, then replays a segment left behind by an interrupted
+    // compaction, then the live log
+    public List<Expense> load() {
+        Map<String, Expense> state = new LinkedHashMap<>();
+        synchronized (compactionLock) {
+            flush();
+            readSnapshot(state);
+            replay(compactingFile, state);
+            replay(logFile, state);
+        }
+        return new ArrayList<>(state.values());
+    }
+
+    // Full rewrite of the snapshot; the log is emptied since it is now folded in
+    public void rewrite(Collection<Expense> expenses) {
+        synchronized (compactionLock) {
+            synchronized (ioLock) {
+                try {
+                    snapshot.write(expenses);
+                    // Queued records are already part of what the caller passed in
+                    discardPending();
+                    closeChannel();
+                    Files.deleteIfExists(compactingFile);
+                    Files.deleteIfExists(logFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Writes and fsyncs everything queued so far. On failure the batch goes
+    // back on the queue and the next flush retries it.
+    public void flush() {
+        synchronized (ioLock) {
+            String batch;
+            int records;
+            synchronized (this) {
+                if (pendingRecords == 0) return;
+                batch = pending.toString();
+                records = pendingRecords;
+                pending.setLength(0);
+                pendingRecords = 0;
+            }
+
+            long start = System.nanoTime();
+            long sizeBefore = -1;
+            try {
+                openChannel();
+                sizeBefore = channel.size();
+                ByteBuffer buffer = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                Metrics.record("io.journal.flush", System.nanoTime() - start);
+                Metrics.increment("io.journal.records", records);
+            } catch (IOException e) {
+                Metrics.increment("io.errors");
+                e.printStackTrace();
+                // Cut off a partial write so the retry doesn't land mid-line
+                truncate(sizeBefore);
+                synchronized (this) {
+                    pending.insert(0, batch);
+                    pendingRecords += records;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+        synchronized (ioLock) {
+            closeChannel();
+        }
+        synchronized (this) {
+            if (background != null) {
+                background.shutdown();
+                background = null;
+            }
+        }
+    }
+
+    // Moves the live log aside, then folds snapshot + that segment into a new
+    // snapshot. Appends continue into a fresh log while the fold runs.
+    public void compact() {
+        synchronized (compactionLock) {
+            synchronized (ioLock) {
+                try {
+                    flush();
+                    if (!Files.exists(logFile) || Files.size(logFile) == 0) return;
+                    closeChannel();
+                    if (Files.exists(compactingFile)) {
+                        // A previous fold never finished; fold both segments in order
+                        appendFile(logFile, compactingFile);
+                        Files.delete(logFile);
+                    } else {
+                        Files.move(logFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+
+            Map<String, Expense> state = new LinkedHashMap<>();
+            readSnapshot(state);
+            replay(compactingFile, state);
+            try {
+                snapshot.write(state.values());
+                Files.deleteIfExists(compactingFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Never touches the disk; a full batch just wakes the background thread early
+    private synchronized void append(String record) {
+        pending.append(record).append('\n');
+        startBackground();
+        if (++pendingRecords == FSYNC_BATCH) {
+            background.execute(this::flush);
+        }
+    }
+
+    private synchronized void discardPending() {
+        pending.setLength(0);
+        pendingRecords = 0;
+    }
+
+    private void startBackground() {
+        if (background != null) return;
+        background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expense-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        background.scheduleWithFixedDelay(this::backgroundTick,
+                FSYNC_INTERVAL_MS, FSYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void openChannel() throws IOException {
+        if (channel != null) return;
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    private void truncate(long size) {
+        if (channel == null || size < 0) return;
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // The torn line is skipped on replay anyway
+            closeChannel();
+        }
+    }
+
+    // Anything thrown here would cancel the schedule for good, so nothing escapes
+    private void backgroundTick() {
+        try {
+            flush();
+            if (Files.exists(logFile) && Files.size(logFile) >= COMPACT_THRESHOLD_BYTES) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readSnapshot(Map<String, Expense> state) {
+        try {
+            for (Expense expense : snapshot.read()) {
+                state.put(expense.getExpenseId(), expense);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replay(Path file, Map<String, Expense> state) {
+        if (!Files.exists(file)) return;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 2 && line.charAt(0) == BATCH && line.charAt(1) == '|') {
+                    replayBatch(file, reader, line.substring(2), state);
+                    continue;
+                }
+                // A torn last line from a crash, or any other bad line, is skipped
+                Record record = Record.parse(line);
+                if (record != null) {
+                    record.applyTo(state);
+                } else {
+                    skipped(file, line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // A batch cut short by a crash, or with a line that doesn't parse, is dropped whole
+    private static void replayBatch(Path file, BufferedReader reader, String count, Map<String, Expense> state)
+            throws IOException {
+        int size;
+        try {
+            size = Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        List<Record> records = new ArrayList<>(Math.max(0, Math.min(size, 4096)));
+        for (int i = 0; i < size; i++) {
+            String line = reader.readLine();
+            Record record = line != null ? Record.parse(line) : null;
+            if (record == null) {
+                if (line != null) skipped(file, line);
+                return;
+            }
+            records.add(record);
+        }
+        for (Record record : records) {
+            record.applyTo(state);
+        }
+    }
+
+    private static void skipped(Path file, String line) {
+        Metrics.increment("io.journal.skipped");
+        System.err.printf("Skipping unreadable journal record in %s: %s%n",
+                file, line.length() > 200 ? line.substring(0, 200) + "..." : line);
+    }
+
+    // One parsed log line: an expense added or updated, or the id of one removed
+    private static final class Record {
+        private final String expenseId;
+        private final Expense expense; // null for removals
+
+        private Record(String expenseId, Expense expense) {
+            this.expenseId = expenseId;
+            this.expense = expense;
+        }
+
+        // Null for a line that doesn't parse
+        static Record parse(String line) {
+            if (line.length() < 3 || line.charAt(1) != '|') return null;
+            String body = line.substring(2);
+            switch (line.charAt(0)) {
+                case ADD:
+                case UPDATE:
+                    Expense expense = FileManager.parseExpense(body);
+                    return expense != null ? new Record(expense.getExpenseId(), expense) : null;
+                case REMOVE:
+                    return new Record(FileManager.unescape(body), null);
+                default:
+                    return null;
+            }
+        }
+
+        void applyTo(Map<String, Expense> state) {
+            if (expense != null) {
+                state.put(expenseId, expense);
+            } else {
+                state.remove(expenseId);
+            }
+        }
+    }
+
+    private static void appendFile(Path from, Path to) throws IOException {
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            in.transferTo(0, in.size(), out);
+        }
+    }
+}
@@ -1,181 +1,1333 @@
-import java.util.*;
-import java.util.stream.Collectors;
-
-public class ExpenseManager {
-    private List<Expense> expenses;
-    private Map<String, Double> userNetBalances;
-    private Map<String, Group> groups;
-    private Map<String, Map<String, Double>> groupBalances;
-
-    public ExpenseManager(List<Expense> expenses, List<Group> groups) {
-        this.expenses = new ArrayList<>(expenses);
-        this.userNetBalances = new HashMap<>();
-        this.groups = new HashMap<>();
-        this.groupBalances = new HashMap<>();
-
-        for (Group group : groups) {
-            this.groups.put(group.getGroupId(), group);
-            this.groupBalances.put(group.getGroupId(), new HashMap<>());
-        }
-        calculateBalances();
-    }
-
-    public void addExpense(Expense expense) {
-        expenses.add(expense);
-        updateBalances(expense);
-    }
-
-    public void removeExpense(String expenseId) {
-        expenses.removeIf(e -> e.getExpenseId().equals(expenseId));
-        recalculateAllBalances();
-    }
-
-    public void updateExpense(Expense updatedExpense) {
-        removeExpense(updatedExpense.getExpenseId());
-        addExpense(updatedExpense);
-    }
-
-    public Expense getExpenseById(String expenseId) {
-        return expenses.stream()
-                .filter(e -> e.getExpenseId().equals(expenseId))
-                .findFirst()
-                .orElse(null);
-    }
-
-    public void createGroup(Group group) {
-        groups.put(group.getGroupId(), group);
-        groupBalances.put(group.getGroupId(), new HashMap<>());
-    }
-
-    public void updateGroup(Group group) {
-        groups.put(group.getGroupId(), group);
-        if (!groupBalances.containsKey(group.getGroupId())) {
-            groupBalances.put(group.getGroupId(), new HashMap<>());
-        }
-        recalculateAllBalances();
-    }
-
-    public List<Group> getUserGroups(String username) {
-        return groups.values().stream()
-                .filter(g -> g.getMembers().contains(username))
-                .collect(Collectors.toList());
-    }
-
-    public Group getGroupById(String groupId) {
-        return groups.get(groupId);
-    }
-
-    public List<Expense> getGroupExpenses(String groupId) {
-        return expenses.stream()
-                .filter(e -> groupId.equals(e.getGroupId()))
-                .collect(Collectors.toList());
-    }
-
-    public List<Expense> getMonthlyExpenses(String username, int month, int year) {
-        return expenses.stream()
-                .filter(e -> Arrays.asList(e.getParticipants()).contains(username))
-                .filter(e -> {
-                    String[] dateParts = e.getDate().split("-");
-                    return Integer.parseInt(dateParts[1]) == month &&
-                            Integer.parseInt(dateParts[0]) == year;
-                })
-                .collect(Collectors.toList());
-    }
-
-    private void calculateBalances() {
-        userNetBalances.clear();
-        groupBalances.values().forEach(Map::clear);
-        expenses.forEach(this::updateBalances);
-    }
-
-    private void recalculateAllBalances() {
-        calculateBalances();
-    }
-
-    private void updateBalances(Expense expense) {
-        String payer = expense.getPayer();
-        double amount = expense.getAmount();
-        String[] participants = expense.getParticipants();
-        double share = amount / participants.length;
-
-        // Update personal balances
-        userNetBalances.merge(payer, amount - share, Double::sum);
-        for (String participant : participants) {
-            if (!participant.equals(payer)) {
-                userNetBalances.merge(participant, -share, Double::sum);
-            }
-        }
-
-        // Update group balances if applicable
-        if (expense.getGroupId() != null) {
-            Map<String, Double> groupBalance = groupBalances.get(expense.getGroupId());
-            if (groupBalance != null) {
-                groupBalance.merge(payer, amount - share, Double::sum);
-                for (String participant : participants) {
-                    if (!participant.equals(payer)) {
-                        groupBalance.merge(participant, -share, Double::sum);
-                    }
-                }
-            }
-        }
-    }
-
-    public void showUserSummary(String username) {
-        double balance = userNetBalances.getOrDefault(username, 0.0);
-        System.out.printf("\033[1;36mNet Balance: %s₹%.2f\n",
-                balance >= 0 ? "You are owed " : "You owe ", Math.abs(balance));
-
-        System.out.println("\033[1;33mDetailed Balances:");
-        userNetBalances.forEach((user, amount) -> {
-            if (!user.equals(username) && amount != 0) {
-                System.out.printf("\033[0;37m%s: %s₹%.2f\n",
-                        user, amount > 0 ? "owes you " : "you owe ", Math.abs(amount));
-            }
-        });
-    }
-
-    public void showGroupSummary(String groupId, String currentUser) {
-        Map<String, Double> balances = groupBalances.getOrDefault(groupId, new HashMap<>());
-        double userBalance = balances.getOrDefault(currentUser, 0.0);
-
-        System.out.printf("\033[1;35m=== GROUP BALANCE SUMMARY ===\n");
-        System.out.printf("\033[1;36mYour net balance: %s₹%.2f\n\n",
-                userBalance >= 0 ? "+" : "", userBalance);
-
-        System.out.println("\033[1;33mDetailed Balances:");
-        balances.forEach((user, amount) -> {
-            if (!user.equals(currentUser) && amount != 0) {
-                System.out.printf("\033[0;37m%s: %s₹%.2f\n",
-                        user, amount > 0 ? "owes you " : "you owe ", Math.abs(amount));
-            }
-        });
-    }
-
-    public void showExpenseHistory(String username) {
-        List<Expense> userExpenses = expenses.stream()
-                .filter(e -> Arrays.asList(e.getParticipants()).contains(username))
-                .collect(Collectors.toList());
-
-        if (userExpenses.isEmpty()) {
-            System.out.println("\033[1;31mNo expenses found");
-            return;
-        }
-
-        System.out.println("\n\033[1;33m=== EXPENSE HISTORY ===");
-        userExpenses.forEach(System.out::println);
-    }
-
-    public List<Expense> getExpenses() {
-        return new ArrayList<>(expenses);
-    }
-
-    public List<Expense> getExpensesByCategory(String category) {
-        return expenses.stream()
-                .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                .collect(Collectors.toList());
-    }
-
-    // Make sure all methods have proper return statements
-
-
-}
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Safe to share between sessions. Every change takes the write lock, since an
+// expense touches several indexes and balances that must move together;
+// queries take the read lock, and balance lookups first try an optimistic
+// read that only falls back to locking if a write slipped in meanwhile.
+public class ExpenseManager {
+    private final StampedLock lock = new StampedLock();
+    // Held by a batch from its checks until it is applied, and by anything
+    // else that changes or removes a stored expense, so what a batch checked
+    // still holds once it has been written. Readers and addExpense never wait
+    // on it; taken before the lock, never while holding it.
+    private final Object commitLock = new Object();
+
+    // Expenses by id, kept in insertion order
+    private Map<String, Expense> expenses;
+    private Map<String, Group> groups;
+
+    // Balances in minor units; personal ones indexed by SymbolTable.USERS id
+    private long[] userNetBalances;
+    private Map<String, Ledger> groupBalances;
+    // Pairwise debts, also by user id: debts[a].get(b) is what b owes a, netted
+    // across every expense the two share, so debts[b].get(a) is its negation.
+    // A row is only created once the user owes or is owed something.
+    private Ledger[] debts;
+
+    // Secondary indexes, maintained on every add/remove. Per-user and per-group
+    // expenses are ordered by sequence so history can be paged newest first.
+    private long nextSequence;
+    private Map<Integer, NavigableMap<Long, Expense>> expensesByParticipant;
+    private Map<String, NavigableMap<Long, Expense>> expensesByGroup;
+    private Map<String, Set<Expense>> expensesByCategory;
+    private SpendingRollup spending;
+
+    // The same expenses ordered by date, for range queries that start with a
+    // binary search. Expenses without a parsable date sort first and fall
+    // outside every range.
+    private Map<Integer, NavigableMap<TimeKey, Expense>> timelineByParticipant;
+    private Map<String, NavigableMap<TimeKey, Expense>> timelineByGroup;
+
+    // Reverse membership index, so a user's groups cost O(their groups).
+    // Edits made straight on a Group arrive through the listener.
+    private Map<Integer, Set<Group>> groupsByMember;
+    private final Group.MembershipListener membership = new Group.MembershipListener() {
+        @Override
+        public void memberAdded(Group group, int userId) {
+            syncMember(group, userId);
+        }
+
+        @Override
+        public void memberRemoved(Group group, int userId) {
+            syncMember(group, userId);
+        }
+    };
+
+    // Summaries and reports, evicted under the write lock by every change
+    // that touches one of their users, months or groups. A report over more
+    // months than MAX_MONTH_DEPENDENCIES depends on its user as a whole.
+    private static final int MAX_MONTH_DEPENDENCIES = 24;
+    private final ReportCache reports = new ReportCache(
+            Integer.getInteger("smartsplit.reportCache.size", 10_000),
+            Long.getLong("smartsplit.reportCache.maxAgeMillis", 300_000));
+
+    // Every change is also recorded as an event; see ExpenseEventLog. Until
+    // openHistory is called the log is held in memory, bounded to its last few
+    // blocks, and starts from the balances loaded here. A saved log keeps every
+    // event unless smartsplit.historyDays asks for pruning past that many days.
+    private static final int CHECKPOINT_INTERVAL = Integer.getInteger("smartsplit.checkpointInterval", 10_000);
+    private static final int HISTORY_DAYS = Integer.getInteger("smartsplit.historyDays", 0);
+    private ExpenseEventLog history;
+
+    // When on, every edit/delete is checked against a full recompute
+    private boolean consistencyCheck = Boolean.getBoolean("smartsplit.checkBalances");
+
+    public ExpenseManager(List<Expense> expenses, List<Group> groups) {
+        this.expenses = new LinkedHashMap<>();
+        this.userNetBalances = new long[16];
+        this.debts = new Ledger[16];
+        this.groups = new HashMap<>();
+        this.groupBalances = new HashMap<>();
+        this.expensesByParticipant = new HashMap<>();
+        this.expensesByGroup = new HashMap<>();
+        this.expensesByCategory = new HashMap<>();
+        this.timelineByParticipant = new HashMap<>();
+        this.timelineByGroup = new HashMap<>();
+        this.spending = new SpendingRollup();
+        this.groupsByMember = new HashMap<>();
+
+        for (Expense expense : expenses) {
+            expense.setSequence(nextSequence++);
+            this.expenses.put(expense.getExpenseId(), expense);
+            index(expense);
+        }
+
+        for (Group group : groups) {
+            this.groups.put(group.getGroupId(), group);
+            this.groupBalances.put(group.getGroupId(), new Ledger(group.getMemberCount()));
+            indexGroup(group);
+        }
+        calculateBalances();
+        history = new ExpenseEventLog(CHECKPOINT_INTERVAL, userNetBalances, groupBalances);
+    }
+
+    // An id that is already taken is rejected, as in addExpenses; updateExpense replaces
+    public void addExpense(Expense expense) {
+        long stamp = lock.writeLock();
+        try {
+            if (expenses.containsKey(expense.getExpenseId())) {
+                throw new IllegalArgumentException("Expense " + expense.getExpenseId() + " already exists");
+            }
+            putExpense(expense);
+            history.expenseAdded(expense);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds a batch under one write lock, skipping any expense whose id is
+    // already taken; returns the skipped ones
+    public List<Expense> addExpenses(Collection<Expense> batch) {
+        List<Expense> duplicates = new ArrayList<>();
+        long stamp = lock.writeLock();
+        try {
+            for (Expense expense : batch) {
+                if (expenses.containsKey(expense.getExpenseId())) {
+                    duplicates.add(expense);
+                } else {
+                    putExpense(expense);
+                    history.expenseAdded(expense);
+                }
+            }
+            checkConsistency();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return duplicates;
+    }
+
+    private void putExpense(Expense expense) {
+        // An update keeps the position of the expense it replaces
+        Expense previous = expenses.get(expense.getExpenseId());
+        expense.setSequence(previous != null ? previous.getSequence() : nextSequence++);
+        expenses.put(expense.getExpenseId(), expense);
+        index(expense);
+        updateBalances(expense, 1);
+        evictReports(expense);
+    }
+
+    public void removeExpense(String expenseId) {
+        synchronized (commitLock) {
+            long stamp = lock.writeLock();
+            try {
+                deleteExpense(expenseId);
+                checkConsistency();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // Pass a new Expense carrying the same id; the stored one is reversed out first
+    public void updateExpense(Expense updatedExpense) {
+        synchronized (commitLock) {
+            long stamp = lock.writeLock();
+            try {
+                if (replaceExpense(updatedExpense)) checkConsistency();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private void deleteExpense(String expenseId) {
+        Expense removed = expenses.remove(expenseId);
+        if (removed != null) {
+            unindex(removed);
+            updateBalances(removed, -1);
+            evictReports(removed);
+            history.expenseRemoved(removed);
+        }
+    }
+
+    // False when the expense was changed in place and everything was recomputed
+    private boolean replaceExpense(Expense updatedExpense) {
+        Expense previous = expenses.get(updatedExpense.getExpenseId());
+        if (previous == updatedExpense) {
+            // Changed in place, so its old contribution is unknown
+            rebuildIndexes();
+            recalculateAllBalances();
+            reports.clear();
+            history.expenseUpdated(null, updatedExpense);
+            history.resync(userNetBalances, groupBalances);
+            return false;
+        }
+        if (previous != null) {
+            unindex(previous);
+            updateBalances(previous, -1);
+            evictReports(previous);
+        }
+        putExpense(updatedExpense);
+        if (previous != null) {
+            history.expenseUpdated(previous, updatedExpense);
+        } else {
+            history.expenseAdded(updatedExpense);
+        }
+        return true;
+    }
+
+    // Starts a set of changes that are applied together by Batch.commit
+    public Batch beginBatch() {
+        return new Batch();
+    }
+
+    // Persists a batch before it is applied, and what undoes it if applying
+    // fails; false if it didn't reach the disk. Called with no lock held.
+    public interface BatchWriter {
+        boolean write(List<Change> changes);
+    }
+
+    // One staged change: an expense added or updated, or the id of one removed
+    public static final class Change {
+        public enum Kind { ADD, UPDATE, REMOVE }
+
+        private final Kind kind;
+        private final String expenseId;
+        private final Expense expense; // null for removals
+        // The version the change was based on, or null to apply it to whatever is stored
+        private final Expense expected;
+
+        private Change(Kind kind, String expenseId, Expense expense, Expense expected) {
+            this.kind = kind;
+            this.expenseId = expenseId;
+            this.expense = expense;
+            this.expected = expected;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getExpenseId() { return expenseId; }
+        public Expense getExpense() { return expense; }
+    }
+
+    // Thrown by Batch.commit when an expense was changed or removed after the
+    // version a change was based on was read
+    public static class ConflictException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    // Changes staged here touch nothing until commit. Commit checks all of
+    // them, has the writer persist them in one go, then applies them under a
+    // single write lock; a rejected change, a failed write or a failure while
+    // applying leaves the manager as it was. Not thread-safe itself.
+    public final class Batch {
+        private final List<Change> changes = new ArrayList<>();
+        private boolean committed;
+
+        private Batch() {
+        }
+
+        public Batch add(Expense expense) {
+            return stage(new Change(Change.Kind.ADD, expense.getExpenseId(), expense, null));
+        }
+
+        // Pass a new Expense carrying the id of one already stored or added earlier in the batch
+        public Batch update(Expense expense) {
+            return stage(new Change(Change.Kind.UPDATE, expense.getExpenseId(), expense, null));
+        }
+
+        // Only if the stored version is still expected, as read before the edit
+        // was made; otherwise commit throws ConflictException
+        public Batch update(Expense expense, Expense expected) {
+            return stage(new Change(Change.Kind.UPDATE, expense.getExpenseId(), expense, expected));
+        }
+
+        public Batch remove(String expenseId) {
+            return stage(new Change(Change.Kind.REMOVE, expenseId, null, null));
+        }
+
+        public Batch remove(String expenseId, Expense expected) {
+            return stage(new Change(Change.Kind.REMOVE, expenseId, null, expected));
+        }
+
+        public int size() {
+            return changes.size();
+        }
+
+        public List<Change> getChanges() {
+            return Collections.unmodifiableList(changes);
+        }
+
+        // Applies in memory only
+        public void commit() {
+            commit(null);
+        }
+
+        // Only the checks take the read lock and only applying takes the
+        // write lock: the write, with its fsync, holds neither, so readers
+        // and adds carry on meanwhile. commitLock keeps other batches, edits
+        // and removals out until this one is applied, so the checks still hold.
+        public void commit(BatchWriter writer) {
+            if (committed) throw new IllegalStateException("Batch already committed");
+            committed = true;
+            if (changes.isEmpty()) return;
+
+            synchronized (commitLock) {
+                List<Change> undo;
+                long stamp = lock.readLock();
+                try {
+                    undo = validate();
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+                if (writer != null && !writer.write(Collections.unmodifiableList(changes))) {
+                    throw new IllegalStateException("Could not save the changes; none were applied");
+                }
+
+                RuntimeException failure = null;
+                stamp = lock.writeLock();
+                int applied = 0;
+                try {
+                    boolean incremental = true;
+                    for (Change change : changes) {
+                        incremental &= apply(change);
+                        applied++;
+                    }
+                    if (incremental) checkConsistency();
+                } catch (RuntimeException e) {
+                    // Take back what was applied, latest first, starting with
+                    // whatever part of the failed change got in
+                    failure = e;
+                    int taken = Math.min(applied + 1, undo.size());
+                    for (Change change : undo.subList(undo.size() - taken, undo.size())) {
+                        try {
+                            apply(change);
+                        } catch (RuntimeException rollback) {
+                            failure.addSuppressed(rollback);
+                        }
+                    }
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+                if (failure == null) return;
+
+                // The whole batch is on disk already, so all of it is undone there
+                if (writer != null && !writer.write(Collections.unmodifiableList(undo))) {
+                    failure.addSuppressed(new IllegalStateException("Could not save the rollback"));
+                }
+                throw failure;
+            }
+        }
+
+        // False when an update was made in place and everything was recomputed
+        private boolean apply(Change change) {
+            switch (change.kind) {
+                case ADD:
+                    putExpense(change.expense);
+                    history.expenseAdded(change.expense);
+                    return true;
+                case UPDATE:
+                    return replaceExpense(change.expense);
+                default:
+                    deleteExpense(change.expenseId);
+                    return true;
+            }
+        }
+
+        private Batch stage(Change change) {
+            if (committed) throw new IllegalStateException("Batch already committed");
+            changes.add(change);
+            return this;
+        }
+
+        // Plays the ids forward so a change may build on an earlier one in the
+        // batch. Returns what undoes the whole batch, latest change first.
+        private List<Change> validate() {
+            // Version of each id after the changes so far; null once removed
+            Map<String, Expense> staged = new HashMap<>();
+            List<Change> undo = new ArrayList<>();
+            for (Change change : changes) {
+                Expense current = staged.containsKey(change.expenseId)
+                        ? staged.get(change.expenseId) : expenses.get(change.expenseId);
+                if (change.expected != null && current != change.expected) {
+                    throw new ConflictException("Expense " + change.expenseId + " was changed or removed meanwhile");
+                }
+                if (change.kind == Change.Kind.ADD && current != null) {
+                    throw new IllegalArgumentException("Expense " + change.expenseId + " already exists");
+                }
+                if (change.kind != Change.Kind.ADD && current == null) {
+                    throw new IllegalArgumentException("No expense " + change.expenseId);
+                }
+                staged.put(change.expenseId, change.kind == Change.Kind.REMOVE ? null : change.expense);
+                switch (change.kind) {
+                    case ADD:
+                        undo.add(new Change(Change.Kind.REMOVE, change.expenseId, null, null));
+                        break;
+                    case UPDATE:
+                        undo.add(new Change(Change.Kind.UPDATE, change.expenseId, current, null));
+                        break;
+                    case REMOVE:
+                        undo.add(new Change(Change.Kind.ADD, change.expenseId, current, null));
+                        break;
+                }
+            }
+            Collections.reverse(undo);
+            return undo;
+        }
+    }
+
+    public Expense getExpenseById(String expenseId) {
+        long stamp = lock.readLock();
+        try {
+            return expenses.get(expenseId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void createGroup(Group group) {
+        checkGroup(group);
+        long stamp = lock.writeLock();
+        try {
+            unindexGroup(groups.put(group.getGroupId(), group));
+            groupBalances.put(group.getGroupId(), new Ledger(group.getMemberCount()));
+            indexGroup(group);
+            reports.invalidate(groupDependency(group.getGroupId()));
+            history.groupChanged(ExpenseEvent.Type.GROUP_CREATED, group);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void updateGroup(Group group) {
+        checkGroup(group);
+        long stamp = lock.writeLock();
+        try {
+            // Re-indexed in full in case members changed before the group was registered
+            unindexGroup(groups.put(group.getGroupId(), group));
+            indexGroup(group);
+            // Membership does not change balances; only a group seen for the first
+            // time needs its existing expenses folded in
+            if (!groupBalances.containsKey(group.getGroupId())) {
+                Ledger groupBalance = new Ledger(group.getMemberCount());
+                groupBalances.put(group.getGroupId(), groupBalance);
+                for (Expense expense : groupExpenses(group.getGroupId()).values()) {
+                    applyShares(null, groupBalance, null, expense, 1);
+                }
+                reports.invalidate(groupDependency(group.getGroupId()));
+            }
+            history.groupChanged(ExpenseEvent.Type.GROUP_UPDATED, group);
+            checkConsistency();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Caught before anything changes: the history records every group it is given
+    private static void checkGroup(Group group) {
+        if (group.getGroupName() == null || group.getDescription() == null || group.getCreator() == null) {
+            throw new IllegalArgumentException("Group " + group.getGroupId() + " has a missing field");
+        }
+    }
+
+    public List<Group> getUserGroups(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        long stamp = lock.readLock();
+        try {
+            Set<Group> userGroups = groupsByMember.get(userId);
+            return userGroups != null ? new ArrayList<>(userGroups) : new ArrayList<>();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Only a group with no expenses can go; returns false otherwise
+    public boolean removeGroup(String groupId) {
+        long stamp = lock.writeLock();
+        try {
+            if (!groupExpenses(groupId).isEmpty()) {
+                return false;
+            }
+            Group removed = groups.remove(groupId);
+            unindexGroup(removed);
+            groupBalances.remove(groupId);
+            reports.invalidate(groupDependency(groupId));
+            if (removed != null) history.groupChanged(ExpenseEvent.Type.GROUP_REMOVED, removed);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public List<Group> getGroups() {
+        long stamp = lock.readLock();
+        try {
+            return new ArrayList<>(groups.values());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Group getGroupById(String groupId) {
+        long stamp = lock.readLock();
+        try {
+            return groups.get(groupId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<Expense> getGroupExpenses(String groupId) {
+        long stamp = lock.readLock();
+        try {
+            return new ArrayList<>(groupExpenses(groupId).values());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Newest first; pass null for the first page, then the previous page's token
+    public ExpensePage getExpenseHistory(String username, String continuationToken, int pageSize) {
+        long stamp = lock.readLock();
+        try {
+            return page(participantExpenses(username), continuationToken, pageSize);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public ExpensePage getGroupExpenses(String groupId, String continuationToken, int pageSize) {
+        long stamp = lock.readLock();
+        try {
+            return page(groupExpenses(groupId), continuationToken, pageSize);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Walks the ordered index from the token down, so a page costs
+    // O(log n + pageSize) however long the history is
+    private static ExpensePage page(NavigableMap<Long, Expense> ordered, String continuationToken, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        NavigableMap<Long, Expense> newestFirst;
+        try {
+            newestFirst = continuationToken == null
+                    ? ordered.descendingMap()
+                    : ordered.headMap(Long.parseLong(continuationToken), false).descendingMap();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + continuationToken);
+        }
+
+        List<Expense> page = new ArrayList<>(Math.min(pageSize, newestFirst.size()));
+        for (Expense expense : newestFirst.values()) {
+            if (page.size() == pageSize) {
+                return new ExpensePage(page, Long.toString(page.get(pageSize - 1).getSequence()));
+            }
+            page.add(expense);
+        }
+        return new ExpensePage(page, null);
+    }
+
+    public List<Expense> getMonthlyExpenses(String username, int month, int year) {
+        LocalDateTime start = YearMonth.of(year, month).atDay(1).atStartOfDay();
+        return getExpensesBetween(username, start, start.plusMonths(1), Integer.MAX_VALUE);
+    }
+
+    // Expenses the user took part in dated in [from, to), oldest first, at
+    // most limit of them; costs O(log n + returned)
+    public List<Expense> getExpensesBetween(String username, LocalDateTime from, LocalDateTime to, int limit) {
+        int userId = SymbolTable.USERS.lookup(username);
+        long stamp = lock.readLock();
+        try {
+            return between(timelineByParticipant.get(userId), from, to, limit);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<Expense> getGroupExpensesBetween(String groupId, LocalDateTime from, LocalDateTime to, int limit) {
+        long stamp = lock.readLock();
+        try {
+            return between(timelineByGroup.get(groupId), from, to, limit);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Per-category totals over [from, to) for any range, not just whole
+    // months; walks only the expenses inside it
+    public Collection<SpendingRollup.Totals> getSpendingBetween(String username, LocalDateTime from, LocalDateTime to) {
+        int userId = SymbolTable.USERS.lookup(username);
+        if (userId < 0) return Collections.emptyList();
+        long fromMinute = minute(from);
+        long toMinute = minute(to);
+        return cached(new ReportCache.Key(userDependency(userId), "spending", fromMinute + ".." + toMinute),
+                monthDependencies(userId, monthKey(fromMinute), monthKey(toMinute - 1)), () -> {
+                    Map<String, SpendingRollup.Totals> byCategory = new LinkedHashMap<>();
+                    NavigableMap<TimeKey, Expense> timeline = timelineByParticipant.get(userId);
+                    if (timeline != null) {
+                        for (Expense expense : range(timeline, from, to).values()) {
+                            long amount = expense.getAmount();
+                            byCategory.merge(categoryKey(expense.getCategory()),
+                                    new SpendingRollup.Totals(expense.getCategory(), amount, 1, amount, amount),
+                                    SpendingRollup.Totals::merge);
+                        }
+                    }
+                    return Collections.unmodifiableCollection(byCategory.values());
+                });
+    }
+
+    private static List<Expense> between(NavigableMap<TimeKey, Expense> timeline,
+                                         LocalDateTime from, LocalDateTime to, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        List<Expense> result = new ArrayList<>();
+        if (timeline == null) return result;
+        for (Expense expense : range(timeline, from, to).values()) {
+            if (result.size() == limit) break;
+            result.add(expense);
+        }
+        return result;
+    }
+
+    private static NavigableMap<TimeKey, Expense> range(NavigableMap<TimeKey, Expense> timeline,
+                                                        LocalDateTime from, LocalDateTime to) {
+        long fromMinute = minute(from);
+        long toMinute = minute(to);
+        if (toMinute <= fromMinute) return Collections.emptyNavigableMap();
+        return timeline.subMap(new TimeKey(fromMinute, Long.MIN_VALUE), true,
+                new TimeKey(toMinute, Long.MIN_VALUE), false);
+    }
+
+    private static long minute(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private void calculateBalances() {
+        computeBalances(userNetBalances, groupBalances, debts);
+    }
+
+    private void recalculateAllBalances() {
+        calculateBalances();
+    }
+
+    private void computeBalances(long[] userBalances, Map<String, Ledger> byGroup, Ledger[] pairwise) {
+        Arrays.fill(userBalances, 0);
+        Arrays.fill(pairwise, null);
+        byGroup.values().forEach(Ledger::clear);
+        for (Expense expense : expenses.values()) {
+            Ledger groupBalance = expense.getGroupId() != null ? byGroup.get(expense.getGroupId()) : null;
+            applyShares(userBalances, groupBalance, pairwise, expense, 1);
+        }
+    }
+
+    // sign is 1 to apply an expense and -1 to take it back out
+    private void updateBalances(Expense expense, int sign) {
+        Ledger groupBalance = expense.getGroupId() != null ? groupBalances.get(expense.getGroupId()) : null;
+        applyShares(userNetBalances, groupBalance, debts, expense, sign);
+    }
+
+    // Any target may be null. Shares are split exactly, with the remainder
+    // going one minor unit at a time to the first participants. Each share
+    // is also a debt from that participant to the payer.
+    private static void applyShares(long[] userBalances, Ledger groupBalance, Ledger[] pairwise,
+                                    Expense expense, int sign) {
+        int payer = expense.getPayerId();
+        long amount = expense.getAmount();
+        int[] participants = expense.getParticipantIds();
+        int count = participants.length;
+
+        // A payer outside the split paid for the others and carries no share,
+        // so every expense (settlements included) nets to zero
+        long payerShare = 0;
+        for (int i = 0; i < count; i++) {
+            if (participants[i] == payer) {
+                payerShare = Money.share(amount, count, i);
+                break;
+            }
+        }
+
+        credit(userBalances, groupBalance, payer, sign * (amount - payerShare));
+        for (int i = 0; i < count; i++) {
+            if (participants[i] != payer) {
+                long share = Money.share(amount, count, i);
+                credit(userBalances, groupBalance, participants[i], -sign * share);
+                if (pairwise != null) owe(pairwise, participants[i], payer, sign * share);
+            }
+        }
+    }
+
+    private static void owe(Ledger[] pairwise, int debtor, int creditor, long amount) {
+        debtRow(pairwise, creditor).add(debtor, amount);
+        debtRow(pairwise, debtor).add(creditor, -amount);
+    }
+
+    private static Ledger debtRow(Ledger[] pairwise, int userId) {
+        Ledger row = pairwise[userId];
+        if (row == null) {
+            row = new Ledger(4);
+            pairwise[userId] = row;
+        }
+        return row;
+    }
+
+    private static void credit(long[] userBalances, Ledger groupBalance, int userId, long delta) {
+        if (userBalances != null) userBalances[userId] += delta;
+        if (groupBalance != null) groupBalance.add(userId, delta);
+    }
+
+    // What the expense adds to each user's net balance, by user id
+    static Ledger shares(Expense expense) {
+        Ledger shares = new Ledger(expense.getParticipantIds().length + 1);
+        applyShares(null, shares, null, expense, 1);
+        return shares;
+    }
+
+    // Users are interned when their Expense is built; make room for any new ids
+    private void ensureUserCapacity() {
+        int userCount = SymbolTable.USERS.size();
+        if (userCount > userNetBalances.length) {
+            userNetBalances = Arrays.copyOf(userNetBalances, Math.max(userCount, userNetBalances.length * 2));
+            debts = Arrays.copyOf(debts, userNetBalances.length);
+        }
+    }
+
+    // Net personal balance in minor units, positive when the user is owed
+    public long getUserBalance(String username) {
+        long stamp = lock.tryOptimisticRead();
+        long balance = userBalance(username);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = userBalance(username);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return balance;
+    }
+
+    // Copy of every personal balance, indexed by SymbolTable.USERS id, all
+    // taken from the same point between writes
+    public long[] getUserBalances() {
+        long stamp = lock.tryOptimisticRead();
+        long[] balances = userBalancesCopy();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balances = userBalancesCopy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return balances;
+    }
+
+    // Copy of a group's balances, or an empty ledger for an unknown group
+    public Ledger getGroupBalances(String groupId) {
+        long stamp = lock.readLock();
+        try {
+            Ledger balances = groupBalances.get(groupId);
+            return balances != null ? balances.copy() : new Ledger();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Copy of what each counterparty owes the user, by user id: positive when
+    // they owe the user, negative when the user owes them. Pairs that have
+    // evened out may still appear with a zero amount.
+    public Ledger getDebts(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        long stamp = lock.readLock();
+        try {
+            Ledger row = userId >= 0 && userId < debts.length ? debts[userId] : null;
+            return row != null ? row.copy() : new Ledger();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // What counterparty owes the user, negative if the user owes them; O(1)
+    public long getDebt(String username, String counterparty) {
+        int userId = SymbolTable.USERS.lookup(username);
+        int otherId = SymbolTable.USERS.lookup(counterparty);
+        long stamp = lock.readLock();
+        try {
+            Ledger row = userId >= 0 && userId < debts.length ? debts[userId] : null;
+            return row != null && otherId >= 0 ? row.get(otherId) : 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private long userBalance(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        long[] balances = userNetBalances;
+        return userId >= 0 && userId < balances.length ? balances[userId] : 0;
+    }
+
+    private long[] userBalancesCopy() {
+        long[] balances = userNetBalances;
+        return Arrays.copyOf(balances, Math.min(SymbolTable.USERS.size(), balances.length));
+    }
+
+    private NavigableMap<Long, Expense> participantExpenses(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        return expensesByParticipant.getOrDefault(userId, Collections.emptyNavigableMap());
+    }
+
+    private NavigableMap<Long, Expense> groupExpenses(String groupId) {
+        return expensesByGroup.getOrDefault(groupId, Collections.emptyNavigableMap());
+    }
+
+    public void setConsistencyCheck(boolean enabled) {
+        long stamp = lock.writeLock();
+        try {
+            this.consistencyCheck = enabled;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Compares the incrementally maintained balances with a full recompute
+    public boolean verifyBalances() {
+        long stamp = lock.readLock();
+        try {
+            return balancesMatch();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean balancesMatch() {
+        long[] expectedUsers = new long[userNetBalances.length];
+        Ledger[] expectedDebts = new Ledger[debts.length];
+        Map<String, Ledger> expectedGroups = new HashMap<>();
+        groupBalances.keySet().forEach(groupId -> expectedGroups.put(groupId, new Ledger()));
+        computeBalances(expectedUsers, expectedGroups, expectedDebts);
+
+        if (!Arrays.equals(userNetBalances, expectedUsers)) return false;
+        for (int userId = 0; userId < debts.length; userId++) {
+            Ledger actual = debts[userId] != null ? debts[userId] : new Ledger();
+            Ledger expected = expectedDebts[userId] != null ? expectedDebts[userId] : new Ledger();
+            if (!actual.sameBalances(expected)) return false;
+        }
+        for (Map.Entry<String, Ledger> entry : expectedGroups.entrySet()) {
+            if (!groupBalances.get(entry.getKey()).sameBalances(entry.getValue())) return false;
+        }
+        return true;
+    }
+
+    private void checkConsistency() {
+        if (consistencyCheck && !balancesMatch()) {
+            throw new IllegalStateException("Incremental balances diverged from a full recompute");
+        }
+    }
+
+    public List<SettlementPlanner.Transfer> planGroupSettlement(String groupId) {
+        return cached(new ReportCache.Key(groupDependency(groupId), "settlement", ""),
+                List.of(groupDependency(groupId)), () -> {
+                    Ledger balances = groupBalances.get(groupId);
+                    return Collections.unmodifiableList(
+                            SettlementPlanner.plan(balances != null ? balances : new Ledger()));
+                });
+    }
+
+    public List<SettlementPlanner.Transfer> planUserSettlement() {
+        long[] balances = getUserBalances();
+        return SettlementPlanner.plan(balances, balances.length);
+    }
+
+    // The transfers from the overall plan that username pays or receives.
+    // Together they clear that user's balance; nobody else is settled on their behalf.
+    public List<SettlementPlanner.Transfer> planUserSettlement(String username) {
+        return involving(planUserSettlement(), username);
+    }
+
+    // The same for one group: username's share of the group's plan
+    public List<SettlementPlanner.Transfer> planGroupSettlement(String groupId, String username) {
+        return involving(planGroupSettlement(groupId), username);
+    }
+
+    private static List<SettlementPlanner.Transfer> involving(List<SettlementPlanner.Transfer> plan, String username) {
+        List<SettlementPlanner.Transfer> own = new ArrayList<>();
+        for (SettlementPlanner.Transfer transfer : plan) {
+            if (transfer.getFrom().equals(username) || transfer.getTo().equals(username)) {
+                own.add(transfer);
+            }
+        }
+        return own;
+    }
+
+    // One transfer per counterparty that clears each of the user's debts
+    // directly, as opposed to the minimal plan across everyone
+    public List<SettlementPlanner.Transfer> planPairwiseSettlement(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        if (userId < 0) return new ArrayList<>();
+        return cached(new ReportCache.Key(userDependency(userId), "pairwise", ""),
+                List.of(userDependency(userId)), () -> {
+                    List<SettlementPlanner.Transfer> plan = new ArrayList<>();
+                    Ledger row = userId < debts.length ? debts[userId] : null;
+                    if (row == null) return Collections.unmodifiableList(plan);
+                    row.forEach((otherId, amount) -> {
+                        String other = SymbolTable.USERS.name(otherId);
+                        if (amount > 0) {
+                            plan.add(new SettlementPlanner.Transfer(other, username, amount));
+                        } else if (amount < 0) {
+                            plan.add(new SettlementPlanner.Transfer(username, other, -amount));
+                        }
+                    });
+                    return Collections.unmodifiableList(plan);
+                });
+    }
+
+    // Records each transfer as a settlement expense paid by the debtor for the
+    // creditor; returns them so the caller can persist the batch
+    public List<Expense> recordSettlements(List<SettlementPlanner.Transfer> transfers, String date, String groupId) {
+        return recordSettlements(transfers, date, groupId, null);
+    }
+
+    // As above, with the whole plan saved by writer in one go before it is applied
+    public List<Expense> recordSettlements(List<SettlementPlanner.Transfer> transfers, String date, String groupId,
+                                           BatchWriter writer) {
+        List<Expense> settlements = new ArrayList<>(transfers.size());
+        Batch batch = beginBatch();
+        for (SettlementPlanner.Transfer transfer : transfers) {
+            Expense settlement = new Expense(
+                    "Settlement with " + transfer.getTo(),
+                    "Suggested settlement",
+                    transfer.getAmount(),
+                    transfer.getFrom(),
+                    new String[]{transfer.getTo()},
+                    date,
+                    "Settlement",
+                    groupId
+            );
+            settlements.add(settlement);
+            batch.add(settlement);
+        }
+
+        // Applied as one batch so no reader sees a half-settled plan
+        batch.commit(writer);
+        return settlements;
+    }
+
+    // Takes over the history saved in store, or starts one there from the
+    // balances held here. If it doesn't end at them (changes made while no
+    // history was kept, or events lost with a torn write) a checkpoint
+    // corrects it. Returns whether one was needed.
+    public boolean openHistory(ExpenseEventLog.Store store) {
+        return openHistory(store, null);
+    }
+
+    // As above; a store with nothing saved yet is started from the events
+    // earlier supplies, if any, rather than from the balances held here
+    public boolean openHistory(ExpenseEventLog.Store store, Supplier<List<ExpenseEvent>> earlier) {
+        long stamp = lock.writeLock();
+        try {
+            ExpenseEventLog opened = ExpenseEventLog.open(store, CHECKPOINT_INTERVAL,
+                    TimeUnit.DAYS.toMillis(HISTORY_DAYS), userNetBalances, groupBalances, earlier);
+            boolean corrected = !opened.matches(userNetBalances, groupBalances);
+            if (corrected) opened.resync(userNetBalances, groupBalances);
+            history = opened;
+            return corrected;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Personal balance after every change recorded up to the given moment,
+    // replayed from the nearest checkpoint
+    public long getUserBalanceAsOf(String username, LocalDateTime time) {
+        int userId = SymbolTable.USERS.lookup(username);
+        long stamp = lock.readLock();
+        try {
+            return userId >= 0 ? history.userBalanceAsOf(userId, epochMillis(time)) : 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Ledger getGroupBalancesAsOf(String groupId, LocalDateTime time) {
+        long stamp = lock.readLock();
+        try {
+            return history.groupBalancesAsOf(groupId, epochMillis(time));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Every recorded change to one expense or group, oldest first
+    public List<ExpenseEvent> getChangeHistory(String id) {
+        long stamp = lock.readLock();
+        try {
+            return history.eventsFor(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Events are stamped with the wall clock, so moments are read in the local zone
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public void showUserSummary(String username) {
+        long balance = getUserBalance(username);
+        System.out.printf("\033[1;36mNet Balance: %s₹%s\n",
+                balance >= 0 ? "You are owed " : "You owe ", Money.format(Math.abs(balance)));
+
+        System.out.println("\033[1;33mDetailed Balances:");
+        for (SettlementPlanner.Transfer debt : planPairwiseSettlement(username)) {
+            boolean owed = debt.getTo().equals(username);
+            System.out.printf("\033[0;37m%s: %s₹%s\n", owed ? debt.getFrom() : debt.getTo(),
+                    owed ? "owes you " : "you owe ", Money.format(debt.getAmount()));
+        }
+    }
+
+    public void showGroupSummary(String groupId, String currentUser) {
+        Ledger balances = groupBalanceSnapshot(groupId);
+        int currentUserId = SymbolTable.USERS.lookup(currentUser);
+        long userBalance = currentUserId >= 0 ? balances.get(currentUserId) : 0;
+
+        System.out.printf("\033[1;35m=== GROUP BALANCE SUMMARY ===\n");
+        System.out.printf("\033[1;36mYour net balance: %s₹%s\n\n",
+                userBalance >= 0 ? "+" : "", Money.format(userBalance));
+
+        System.out.println("\033[1;33mDetailed Balances:");
+        balances.forEach((userId, amount) -> {
+            if (userId != currentUserId && amount != 0) {
+                System.out.printf("\033[0;37m%s: %s₹%s\n",
+                        SymbolTable.USERS.name(userId), amount > 0 ? "owes you " : "you owe ", Money.format(Math.abs(amount)));
+            }
+        });
+    }
+
+    // A cached, shared copy of a group's balances; read-only
+    private Ledger groupBalanceSnapshot(String groupId) {
+        return cached(new ReportCache.Key(groupDependency(groupId), "balances", ""),
+                List.of(groupDependency(groupId)), () -> {
+                    Ledger balances = groupBalances.get(groupId);
+                    return balances != null ? balances.copy() : new Ledger();
+                });
+    }
+
+    // A copy, so callers can iterate while other sessions keep writing
+    public List<Expense> getExpenses() {
+        long stamp = lock.readLock();
+        try {
+            return new ArrayList<>(expenses.values());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // The streaming alternatives to the copies above: each walks the live
+    // structures under the read lock, so writers wait until the walk is done
+
+    // Hands a read-only view of every expense, in insertion order, to reader
+    public void withExpenses(Consumer<Collection<Expense>> reader) {
+        long stamp = lock.readLock();
+        try {
+            reader.accept(Collections.unmodifiableCollection(expenses.values()));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void forEachGroupBalance(GroupBalanceVisitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            for (Group group : groups.values()) {
+                Ledger balances = groupBalances.get(group.getGroupId());
+                if (balances != null) {
+                    balances.forEach((userId, amount) -> visitor.visit(group, userId, amount));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public interface GroupBalanceVisitor {
+        void visit(Group group, int userId, long amount);
+    }
+
+    // Every (user, month, category) cell of the spending rollup
+    public void forEachMonthlyTotal(SpendingRollup.CellVisitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            spending.forEach(visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Spending per category for expenses the user took part in, over an
+    // inclusive range of months; answered from the rollup, not the expenses
+    public Collection<SpendingRollup.Totals> getSpendingByCategory(String username, YearMonth from, YearMonth to) {
+        int userId = SymbolTable.USERS.lookup(username);
+        if (userId < 0) return Collections.emptyList();
+        int fromMonth = monthKey(from.getYear(), from.getMonthValue());
+        int toMonth = monthKey(to.getYear(), to.getMonthValue());
+        return cached(new ReportCache.Key(userDependency(userId), "categories", fromMonth + ".." + toMonth),
+                monthDependencies(userId, fromMonth, toMonth),
+                () -> Collections.unmodifiableCollection(spending.range(userId, fromMonth, toMonth).values()));
+    }
+
+    // All-time spending in one category, or null if there is none. Every
+    // category is cached together, since reports ask for them in turn.
+    public SpendingRollup.Totals getCategorySpending(String username, String category) {
+        int userId = SymbolTable.USERS.lookup(username);
+        if (userId < 0) return null;
+        Map<String, SpendingRollup.Totals> allTime = cached(
+                new ReportCache.Key(userDependency(userId), "categories", "all"), List.of(userDependency(userId)),
+                () -> Collections.unmodifiableMap(spending.range(userId, Integer.MIN_VALUE, Integer.MAX_VALUE)));
+        return allTime.get(categoryKey(category));
+    }
+
+    // Looks a report up, or builds and caches it. Both happen under the read
+    // lock, so no change can slip in between building an entry and filing it.
+    private <V> V cached(ReportCache.Key key, Collection<String> dependencies, Supplier<V> build) {
+        long stamp = lock.readLock();
+        try {
+            V value = reports.get(key);
+            if (value == null) {
+                value = build.get();
+                reports.put(key, value, dependencies);
+            }
+            return value;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // An expense changes the reports of its payer and participants, their
+    // reports for its month, and its group's
+    private void evictReports(Expense expense) {
+        int month = monthKey(expense.getMinute());
+        reports.invalidate(userDependency(expense.getPayerId()));
+        for (int participant : expense.getParticipantIds()) {
+            reports.invalidate(userDependency(participant));
+            reports.invalidate(userMonthDependency(participant, month));
+        }
+        if (expense.getGroupId() != null) {
+            reports.invalidate(groupDependency(expense.getGroupId()));
+        }
+    }
+
+    private static List<String> monthDependencies(int userId, int fromMonth, int toMonth) {
+        if (toMonth < fromMonth || (long) toMonth - fromMonth >= MAX_MONTH_DEPENDENCIES) {
+            return List.of(userDependency(userId));
+        }
+        List<String> dependencies = new ArrayList<>(toMonth - fromMonth + 1);
+        for (int month = fromMonth; month <= toMonth; month++) {
+            dependencies.add(userMonthDependency(userId, month));
+        }
+        return dependencies;
+    }
+
+    private static String userDependency(int userId) {
+        return "user:" + userId;
+    }
+
+    private static String userMonthDependency(int userId, int month) {
+        return "user:" + userId + "@" + month;
+    }
+
+    private static String groupDependency(String groupId) {
+        return "group:" + groupId;
+    }
+
+    public List<Expense> getExpensesByCategory(String category) {
+        long stamp = lock.readLock();
+        try {
+            return new ArrayList<>(expensesByCategory.getOrDefault(categoryKey(category), Collections.emptySet()));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void indexGroup(Group group) {
+        group.setMembershipListener(membership);
+        for (int member : group.getMemberIds()) {
+            groupsByMember.computeIfAbsent(member, k -> new LinkedHashSet<>()).add(group);
+        }
+    }
+
+    private void unindexGroup(Group group) {
+        if (group == null) return;
+        group.setMembershipListener(null);
+        for (int member : group.getMemberIds()) {
+            removeFromIndex(groupsByMember, member, group);
+        }
+    }
+
+    // Notifications can arrive out of order when two threads edit the same
+    // group, so the index copies the group's current state rather than
+    // applying the event
+    private void syncMember(Group group, int userId) {
+        long stamp = lock.writeLock();
+        try {
+            if (groups.get(group.getGroupId()) != group) return;
+            if (group.hasMember(userId)) {
+                groupsByMember.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(group);
+            } else {
+                removeFromIndex(groupsByMember, userId, group);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void rebuildIndexes() {
+        expensesByParticipant.clear();
+        expensesByGroup.clear();
+        expensesByCategory.clear();
+        timelineByParticipant.clear();
+        timelineByGroup.clear();
+        spending = new SpendingRollup();
+        expenses.values().forEach(this::index);
+    }
+
+    private void index(Expense expense) {
+        ensureUserCapacity();
+        // One key shared by every timeline the expense goes into
+        TimeKey time = new TimeKey(expense.getMinute(), expense.getSequence());
+        for (int participant : expense.getParticipantIds()) {
+            expensesByParticipant.computeIfAbsent(participant, k -> new TreeMap<>()).put(expense.getSequence(), expense);
+            timelineByParticipant.computeIfAbsent(participant, k -> new TreeMap<>()).put(time, expense);
+        }
+        if (expense.getGroupId() != null) {
+            expensesByGroup.computeIfAbsent(expense.getGroupId(), k -> new TreeMap<>()).put(expense.getSequence(), expense);
+            timelineByGroup.computeIfAbsent(expense.getGroupId(), k -> new TreeMap<>()).put(time, expense);
+        }
+        expensesByCategory.computeIfAbsent(categoryKey(expense.getCategory()), k -> new LinkedHashSet<>()).add(expense);
+        spending.add(expense, monthKey(expense.getMinute()));
+    }
+
+    private void unindex(Expense expense) {
+        for (int participant : expense.getParticipantIds()) {
+            removeFromOrderedIndex(expensesByParticipant, participant, expense);
+        }
+        if (expense.getGroupId() != null) {
+            removeFromOrderedIndex(expensesByGroup, expense.getGroupId(), expense);
+        }
+        TimeKey time = new TimeKey(expense.getMinute(), expense.getSequence());
+        for (int participant : expense.getParticipantIds()) {
+            removeFromTimeline(timelineByParticipant, participant, time);
+        }
+        if (expense.getGroupId() != null) {
+            removeFromTimeline(timelineByGroup, expense.getGroupId(), time);
+        }
+        removeFromIndex(expensesByCategory, categoryKey(expense.getCategory()), expense);
+        spending.remove(expense, monthKey(expense.getMinute()));
+    }
+
+    private static <K> void removeFromTimeline(Map<K, NavigableMap<TimeKey, Expense>> index, K key, TimeKey time) {
+        NavigableMap<TimeKey, Expense> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(time);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <K> void removeFromOrderedIndex(Map<K, NavigableMap<Long, Expense>> index, K key, Expense expense) {
+        NavigableMap<Long, Expense> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(expense.getSequence());
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <K, V> void removeFromIndex(Map<K, Set<V>> index, K key, V value) {
+        Set<V> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(value);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static String categoryKey(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    private static int monthKey(int year, int month) {
+        return year * 12 + (month - 1);
+    }
+
+    // Undated expenses only count towards all-time totals
+    private static int monthKey(long minute) {
+        if (minute == Expense.NO_MINUTE) return SpendingRollup.NO_MONTH;
+        YearMonth month = YearMonth.from(LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC));
+        return monthKey(month.getYear(), month.getMonthValue());
+    }
+
+    // Orders expenses by date, then by sequence so equal dates stay distinct
+    private static final class TimeKey implements Comparable<TimeKey> {
+        private final long minute;
+        private final long sequence;
+
+        TimeKey(long minute, long sequence) {
+            this.minute = minute;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(TimeKey other) {
+            int byMinute = Long.compare(minute, other.minute);
+            return byMinute != 0 ? byMinute : Long.compare(sequence, other.sequence);
+        }
+    }
+}
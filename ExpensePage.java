@@ -0,0 +1,17 @@
+import java.util.List;
+
+// One page of expenses, newest first. Pass nextToken back to get the
+// following page; it is null on the last page.
+public class ExpensePage {
+    private final List<Expense> expenses;
+    private final String nextToken;
+
+    public ExpensePage(List<Expense> expenses, String nextToken) {
+        this.expenses = expenses;
+        this.nextToken = nextToken;
+    }
+
+    public List<Expense> getExpenses() { return expenses; }
+    public String getNextToken() { return nextToken; }
+    public boolean hasMore() { return nextToken != null; }
+}
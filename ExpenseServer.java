@@ -0,0 +1,820 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// JSON over HTTP front-end to ExpenseManager so many sessions can share one
+// process. Requests authenticate with HTTP Basic against the saved users and
+// act as that user under the console's rules: only the payer edits or
+// deletes an expense, only members see a group, only its creator deletes it.
+//
+//   GET/POST          /expenses                 history page / add
+//   GET/PUT/DELETE    /expenses/{id}
+//   GET               /expenses/{id}/history    every recorded version, oldest first
+//   GET/POST          /groups                   my groups / create
+//   GET/PUT/DELETE    /groups/{id}              PUT renames, adds or removes members
+//   GET               /groups/{id}/expenses, /groups/{id}/balances[?asOf=yyyy-MM-dd]
+//   GET               /balances[?asOf=yyyy-MM-dd] as of the end of that day
+//   GET/POST          /settlements[?group=id]   suggested plan / record it
+//   GET               /reports/monthly?month=MM/yyyy
+//   GET               /reports/categories[?from=MM/yyyy&to=MM/yyyy]
+//   GET               /metrics                  request latency percentiles
+public class ExpenseServer {
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int BACKLOG = 4096;
+    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter monthFormat = DateTimeFormatter.ofPattern("MM/yyyy");
+
+    private final ExpenseManager expenseManager;
+    private final Map<String, User> users;
+    // Group edits are applied and journaled one at a time
+    private final Object groupLock = new Object();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ExpenseServer() {
+        long start = System.nanoTime();
+        this.users = new ConcurrentHashMap<>();
+        for (User user : FileManager.loadUsers()) {
+            users.put(user.getUsername(), user);
+        }
+        this.expenseManager = new ExpenseManager(FileManager.loadExpenses(), FileManager.loadGroups());
+        FileManager.attachHistory(expenseManager);
+        Metrics.record("startup", System.nanoTime() - start);
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        System.out.printf("\033[1;32mSmartSplit server listening on port %d\n", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        if (server == null) return;
+        server.stop(1);
+        executor.shutdown();
+        server = null;
+        FileManager.closeJournal();
+    }
+
+    // One virtual thread per request where the JDK has them (21+); on older
+    // runtimes fall back to a cached pool of platform threads
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String[] path = segments(exchange.getRequestURI().getPath());
+        Response response;
+        try {
+            User user = authenticate(exchange);
+            response = user != null ? dispatch(exchange, user, path) : Response.unauthorized();
+        } catch (IllegalArgumentException e) {
+            response = Response.error(400, e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response = Response.error(500, "Internal error");
+        }
+
+        try {
+            send(exchange, response);
+        } finally {
+            exchange.close();
+            Metrics.record("http " + exchange.getRequestMethod() + " " + route(path), System.nanoTime() - start);
+            Metrics.increment("http.status." + response.status / 100 + "xx");
+        }
+    }
+
+    private Response dispatch(HttpExchange exchange, User user, String[] path) throws IOException {
+        String method = exchange.getRequestMethod();
+        String resource = path.length > 0 ? path[0] : "";
+        switch (resource) {
+            case "expenses":
+                if (path.length == 1) {
+                    if (method.equals("GET")) return expenseHistory(exchange, user);
+                    if (method.equals("POST")) return addExpense(user, body(exchange));
+                } else if (path.length == 2) {
+                    if (method.equals("GET")) return getExpense(user, path[1]);
+                    if (method.equals("PUT")) return updateExpense(user, path[1], body(exchange));
+                    if (method.equals("DELETE")) return deleteExpense(user, path[1]);
+                } else if (path.length == 3 && path[2].equals("history")) {
+                    if (method.equals("GET")) return expenseChanges(user, path[1]);
+                } else {
+                    break;
+                }
+                return Response.methodNotAllowed();
+            case "groups":
+                if (path.length == 1) {
+                    if (method.equals("GET")) return Response.ok(groupsJson(expenseManager.getUserGroups(user.getUsername())));
+                    if (method.equals("POST")) return createGroup(user, body(exchange));
+                } else if (path.length == 2) {
+                    if (method.equals("GET")) return getGroup(user, path[1]);
+                    if (method.equals("PUT")) return updateGroup(user, path[1], body(exchange));
+                    if (method.equals("DELETE")) return deleteGroup(user, path[1]);
+                } else if (path.length == 3 && path[2].equals("expenses")) {
+                    if (method.equals("GET")) return groupExpenses(exchange, user, path[1]);
+                } else if (path.length == 3 && path[2].equals("balances")) {
+                    if (method.equals("GET")) return groupBalances(exchange, user, path[1]);
+                } else {
+                    break;
+                }
+                return Response.methodNotAllowed();
+            case "balances":
+                if (path.length != 1) break;
+                if (method.equals("GET")) return balances(exchange, user);
+                return Response.methodNotAllowed();
+            case "settlements":
+                if (path.length != 1) break;
+                if (method.equals("GET")) return planSettlement(exchange, user);
+                if (method.equals("POST")) return recordSettlement(exchange, user);
+                return Response.methodNotAllowed();
+            case "reports":
+                if (path.length != 2) break;
+                if (!method.equals("GET")) return Response.methodNotAllowed();
+                if (path[1].equals("monthly")) return monthlyReport(exchange, user);
+                if (path[1].equals("categories")) return categoryReport(exchange, user);
+                if (path[1].equals("range")) return rangeReport(exchange, user);
+                break;
+            case "metrics":
+                if (path.length != 1) break;
+                if (method.equals("GET")) return Response.ok(metricsJson());
+                return Response.methodNotAllowed();
+            default:
+                break;
+        }
+        return Response.error(404, "Not found");
+    }
+
+    // Expenses
+
+    private Response expenseHistory(HttpExchange exchange, User user) {
+        Map<String, String> query = query(exchange);
+        if (query.containsKey("from") || query.containsKey("to")) {
+            int limit = pageSize(query);
+            return Response.ok(rangeJson(expenseManager.getExpensesBetween(user.getUsername(),
+                    day(query.get("from"), "from").atStartOfDay(),
+                    day(query.get("to"), "to").plusDays(1).atStartOfDay(), limit + 1), limit));
+        }
+        return Response.ok(pageJson(expenseManager.getExpenseHistory(
+                user.getUsername(), query.get("token"), pageSize(query))));
+    }
+
+    private Response addExpense(User user, Map<String, Object> body) {
+        String groupId = optionalString(body, "groupId");
+        if (groupId != null && !isMember(user, groupId)) {
+            return Response.error(403, "You are not a member of this group");
+        }
+        String date = optionalString(body, "date");
+        Expense expense = new Expense(
+                requiredString(body, "name"),
+                Objects.toString(optionalString(body, "description"), ""),
+                amount(body.get("amount")),
+                user.getUsername(),
+                participants(body, groupId),
+                date != null ? date : dtf.format(LocalDateTime.now()),
+                requiredString(body, "category"),
+                groupId
+        );
+        // Saved before it is applied, like every other write
+        expenseManager.beginBatch().add(expense).commit(FileManager::writeExpenseBatch);
+        return Response.created(expenseJson(expense));
+    }
+
+    private Response getExpense(User user, String expenseId) {
+        Expense expense = expenseManager.getExpenseById(expenseId);
+        if (expense == null || !(expense.hasParticipant(user.getUsername())
+                || expense.getPayer().equals(user.getUsername()))) {
+            return Response.error(404, "No such expense");
+        }
+        return Response.ok(expenseJson(expense));
+    }
+
+    // Visible to anyone who paid for or shared in any version of the expense
+    private Response expenseChanges(User user, String expenseId) {
+        List<ExpenseEvent> changes = expenseManager.getChangeHistory(expenseId);
+        List<Object> json = new ArrayList<>(changes.size());
+        boolean involved = false;
+        for (ExpenseEvent event : changes) {
+            if (!event.isExpenseEvent()) continue;
+            Expense before = event.getBefore() != null ? FileManager.parseExpense(event.getBefore()) : null;
+            Expense after = event.getAfter() != null ? FileManager.parseExpense(event.getAfter()) : null;
+            involved |= involves(before, user) || involves(after, user);
+
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("sequence", event.getSequence());
+            change.put("at", dtf.format(LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(event.getTimestamp()), ZoneId.systemDefault())));
+            change.put("type", event.getType().name());
+            change.put("before", before != null ? expenseJson(before) : null);
+            change.put("after", after != null ? expenseJson(after) : null);
+            json.add(change);
+        }
+        if (!involved) {
+            return Response.error(404, "No such expense");
+        }
+        return Response.ok(json);
+    }
+
+    private static boolean involves(Expense expense, User user) {
+        return expense != null && (expense.hasParticipant(user.getUsername())
+                || expense.getPayer().equals(user.getUsername()));
+    }
+
+    private Response updateExpense(User user, String expenseId, Map<String, Object> body) {
+        Expense expense = expenseManager.getExpenseById(expenseId);
+        if (expense == null || !expense.getPayer().equals(user.getUsername())) {
+            return Response.error(403, "Invalid expense ID or you don't have permission to edit this expense");
+        }
+
+        // Build an edited copy so the manager can take the old version back out
+        Expense updated = new Expense(
+                expense.getExpenseId(),
+                body.containsKey("name") ? requiredString(body, "name") : expense.getName(),
+                body.containsKey("description")
+                        ? Objects.toString(optionalString(body, "description"), "") : expense.getDescription(),
+                body.containsKey("amount") ? amount(body.get("amount")) : expense.getAmount(),
+                expense.getPayer(),
+                body.containsKey("participants")
+                        ? participants(body, expense.getGroupId()) : expense.getParticipants(),
+                expense.getDate(),
+                body.containsKey("category") ? requiredString(body, "category") : expense.getCategory(),
+                expense.getGroupId()
+        );
+        // Checked again under the manager's lock: a delete or another edit since
+        // the read above fails this one rather than being overwritten by it
+        try {
+            expenseManager.beginBatch().update(updated, expense).commit(FileManager::writeExpenseBatch);
+        } catch (ExpenseManager.ConflictException e) {
+            return Response.error(409, e.getMessage());
+        }
+        return Response.ok(expenseJson(updated));
+    }
+
+    private Response deleteExpense(User user, String expenseId) {
+        Expense expense = expenseManager.getExpenseById(expenseId);
+        if (expense == null || !expense.getPayer().equals(user.getUsername())) {
+            return Response.error(403, "Invalid expense ID or you don't have permission to delete this expense");
+        }
+        try {
+            expenseManager.beginBatch().remove(expenseId, expense).commit(FileManager::writeExpenseBatch);
+        } catch (ExpenseManager.ConflictException e) {
+            return Response.error(409, e.getMessage());
+        }
+        return Response.noContent();
+    }
+
+    // Groups
+
+    private Response createGroup(User user, Map<String, Object> body) {
+        Set<String> members = new LinkedHashSet<>();
+        members.add(user.getUsername());
+        for (String member : stringList(body, "members")) {
+            members.add(existingUser(member.trim()));
+        }
+
+        Group group = new Group(requiredString(body, "name"),
+                Objects.toString(optionalString(body, "description"), ""), user.getUsername(), members);
+        synchronized (groupLock) {
+            expenseManager.createGroup(group);
+            FileManager.markDirty(group);
+            FileManager.flush();
+        }
+        return Response.created(groupJson(group));
+    }
+
+    private Response getGroup(User user, String groupId) {
+        Group group = expenseManager.getGroupById(groupId);
+        if (group == null || !group.hasMember(user.getUsername())) {
+            return Response.error(404, "No such group");
+        }
+        return Response.ok(groupJson(group));
+    }
+
+    private Response updateGroup(User user, String groupId, Map<String, Object> body) {
+        synchronized (groupLock) {
+            Group group = expenseManager.getGroupById(groupId);
+            if (group == null || !group.hasMember(user.getUsername())) {
+                return Response.error(404, "No such group");
+            }
+            // As in the console: the creator removes anyone else, others only themselves
+            List<String> leaving = stringList(body, "removeMembers");
+            for (String member : leaving) {
+                member = member.trim();
+                if (member.equals(group.getCreator())
+                        || !(user.getUsername().equals(group.getCreator()) || member.equals(user.getUsername()))) {
+                    return Response.error(403, "You can't remove " + member + " from this group");
+                }
+            }
+
+            // Edits go on a copy, which replaces the stored group only once the
+            // whole request has been read; a bad field leaves the group untouched
+            Group edited = new Group(group.getGroupId(),
+                    body.containsKey("name") ? requiredString(body, "name") : group.getGroupName(),
+                    body.containsKey("description")
+                            ? Objects.toString(optionalString(body, "description"), "") : group.getDescription(),
+                    group.getCreator(), group.getMembers(), group.getCreatedAt());
+            for (String member : stringList(body, "members")) {
+                edited.addMember(existingUser(member.trim()));
+            }
+            for (String member : leaving) {
+                edited.removeMember(member.trim());
+            }
+            expenseManager.updateGroup(edited);
+            FileManager.markDirty(edited);
+            FileManager.flush();
+            return Response.ok(groupJson(edited));
+        }
+    }
+
+    private Response deleteGroup(User user, String groupId) {
+        synchronized (groupLock) {
+            Group group = expenseManager.getGroupById(groupId);
+            if (group == null || !group.hasMember(user.getUsername())) {
+                return Response.error(404, "No such group");
+            }
+            if (!user.getUsername().equals(group.getCreator())) {
+                return Response.error(403, "Only the group's creator can delete it");
+            }
+            if (!expenseManager.removeGroup(groupId)) {
+                return Response.error(409, "The group still has expenses");
+            }
+            FileManager.markRemoved(group);
+            FileManager.flush();
+            return Response.noContent();
+        }
+    }
+
+    private Response groupExpenses(HttpExchange exchange, User user, String groupId) {
+        if (!isMember(user, groupId)) {
+            return Response.error(404, "No such group");
+        }
+        Map<String, String> query = query(exchange);
+        if (query.containsKey("from") || query.containsKey("to")) {
+            int limit = pageSize(query);
+            return Response.ok(rangeJson(expenseManager.getGroupExpensesBetween(groupId,
+                    day(query.get("from"), "from").atStartOfDay(),
+                    day(query.get("to"), "to").plusDays(1).atStartOfDay(), limit + 1), limit));
+        }
+        return Response.ok(pageJson(expenseManager.getGroupExpenses(groupId, query.get("token"), pageSize(query))));
+    }
+
+    private Response groupBalances(HttpExchange exchange, User user, String groupId) {
+        if (!isMember(user, groupId)) {
+            return Response.error(404, "No such group");
+        }
+        String asOf = query(exchange).get("asOf");
+        Ledger ledger = asOf != null
+                ? expenseManager.getGroupBalancesAsOf(groupId, endOf(day(asOf, "asOf")))
+                : expenseManager.getGroupBalances(groupId);
+        Map<String, Object> balances = new TreeMap<>();
+        ledger.forEach((userId, amount) ->
+                balances.put(SymbolTable.USERS.name(userId), Money.format(amount)));
+        return Response.ok(balances);
+    }
+
+    // Balances and settlements
+
+    private Response balances(HttpExchange exchange, User user) {
+        String asOf = query(exchange).get("asOf");
+        if (asOf != null) {
+            LocalDate date = day(asOf, "asOf");
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("asOf", date.toString());
+            json.put("balance", Money.format(expenseManager.getUserBalanceAsOf(user.getUsername(), endOf(date))));
+            return Response.ok(json);
+        }
+
+        // Only the caller's own figures: their net balance and what stands between them and each counterparty
+        long own = expenseManager.getUserBalance(user.getUsername());
+
+        // Per counterparty: positive when they owe this user, negative when this user owes them
+        Map<String, Object> debts = new TreeMap<>();
+        expenseManager.getDebts(user.getUsername()).forEach((userId, amount) -> {
+            if (amount != 0) debts.put(SymbolTable.USERS.name(userId), Money.format(amount));
+        });
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("balance", Money.format(own));
+        json.put("debts", debts);
+        return Response.ok(json);
+    }
+
+    private Response planSettlement(HttpExchange exchange, User user) {
+        Map<String, String> query = query(exchange);
+        String groupId = query.get("group");
+        if (groupId != null && !isMember(user, groupId)) {
+            return Response.error(404, "No such group");
+        }
+        List<SettlementPlanner.Transfer> plan;
+        if (groupId != null) {
+            plan = expenseManager.planGroupSettlement(groupId);
+        } else if ("pairwise".equals(query.get("mode"))) {
+            plan = expenseManager.planPairwiseSettlement(user.getUsername());
+        } else {
+            plan = expenseManager.planUserSettlement(user.getUsername());
+        }
+
+        List<Object> transfers = new ArrayList<>(plan.size());
+        for (SettlementPlanner.Transfer transfer : plan) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("from", transfer.getFrom());
+            json.put("to", transfer.getTo());
+            json.put("amount", Money.format(transfer.getAmount()));
+            transfers.add(json);
+        }
+        return Response.ok(transfers);
+    }
+
+    // With a body naming "with" and "amount", records one settlement paid by
+    // the caller; otherwise records the caller's part of the suggested plan
+    // (or the whole plan of a group they belong to)
+    private Response recordSettlement(HttpExchange exchange, User user) throws IOException {
+        Map<String, Object> body = body(exchange);
+        String date = dtf.format(LocalDateTime.now());
+        List<Expense> recorded;
+        if (body.containsKey("with")) {
+            String otherUser = requiredString(body, "with");
+            if (!users.containsKey(otherUser) || otherUser.equals(user.getUsername())) {
+                return Response.error(400, "Unknown user to settle with: " + otherUser);
+            }
+            // Without an amount, pays off whatever this user owes them
+            long amount = body.containsKey("amount")
+                    ? amount(body.get("amount"))
+                    : -expenseManager.getDebt(user.getUsername(), otherUser);
+            if (amount <= 0) {
+                return Response.error(400, "You don't owe " + otherUser + " anything");
+            }
+            Expense settlement = new Expense(
+                    "Settlement with " + otherUser,
+                    Objects.toString(optionalString(body, "description"), ""),
+                    amount,
+                    user.getUsername(),
+                    new String[]{otherUser},
+                    date,
+                    "Settlement",
+                    null
+            );
+            expenseManager.beginBatch().add(settlement).commit(FileManager::writeExpenseBatch);
+            recorded = List.of(settlement);
+        } else {
+            String groupId = query(exchange).get("group");
+            if (groupId != null && !isMember(user, groupId)) {
+                return Response.error(404, "No such group");
+            }
+            List<SettlementPlanner.Transfer> plan = groupId != null
+                    ? expenseManager.planGroupSettlement(groupId, user.getUsername())
+                    : expenseManager.planUserSettlement(user.getUsername());
+            recorded = expenseManager.recordSettlements(plan, date, groupId, FileManager::writeExpenseBatch);
+        }
+
+        List<Object> json = new ArrayList<>(recorded.size());
+        recorded.forEach(expense -> json.add(expenseJson(expense)));
+        return Response.created(json);
+    }
+
+    // Reports
+
+    private Response monthlyReport(HttpExchange exchange, User user) {
+        YearMonth month = month(query(exchange).get("month"), "month");
+        return Response.ok(spendingJson(month.format(monthFormat),
+                expenseManager.getSpendingByCategory(user.getUsername(), month, month)));
+    }
+
+    // Any span of days, both ends inclusive
+    private Response rangeReport(HttpExchange exchange, User user) {
+        Map<String, String> query = query(exchange);
+        LocalDate from = day(query.get("from"), "from");
+        LocalDate to = day(query.get("to"), "to");
+        return Response.ok(spendingJson(from + "/" + to, expenseManager.getSpendingBetween(
+                user.getUsername(), from.atStartOfDay(), to.plusDays(1).atStartOfDay())));
+    }
+
+    private Response categoryReport(HttpExchange exchange, User user) {
+        Map<String, String> query = query(exchange);
+        if (query.containsKey("from") || query.containsKey("to")) {
+            YearMonth from = month(query.get("from"), "from");
+            YearMonth to = month(query.get("to"), "to");
+            return Response.ok(spendingJson(from.format(monthFormat) + "-" + to.format(monthFormat),
+                    expenseManager.getSpendingByCategory(user.getUsername(), from, to)));
+        }
+
+        List<SpendingRollup.Totals> allTime = new ArrayList<>();
+        for (String category : user.getCategories()) {
+            SpendingRollup.Totals totals = expenseManager.getCategorySpending(user.getUsername(), category);
+            allTime.add(totals != null ? totals : new SpendingRollup.Totals(category, 0, 0, 0, 0));
+        }
+        return Response.ok(spendingJson("all", allTime));
+    }
+
+    private static Map<String, Object> spendingJson(String period, Collection<SpendingRollup.Totals> byCategory) {
+        long total = 0;
+        int count = 0;
+        List<Object> categories = new ArrayList<>();
+        for (SpendingRollup.Totals totals : byCategory) {
+            total += totals.getTotal();
+            count += totals.getCount();
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("category", totals.getCategory());
+            json.put("total", Money.format(totals.getTotal()));
+            json.put("count", totals.getCount());
+            json.put("min", Money.format(totals.getMin()));
+            json.put("max", Money.format(totals.getMax()));
+            categories.add(json);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("period", period);
+        json.put("total", Money.format(total));
+        json.put("count", count);
+        json.put("categories", categories);
+        return json;
+    }
+
+    private static Map<String, Object> metricsJson() {
+        Map<String, Object> timers = new TreeMap<>();
+        Metrics.timers().forEach((name, timer) -> {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("count", timer.count());
+            json.put("meanMillis", timer.meanMillis());
+            json.put("p50Millis", timer.percentileMillis(50));
+            json.put("p99Millis", timer.percentileMillis(99));
+            json.put("p999Millis", timer.percentileMillis(99.9));
+            timers.put(name, json);
+        });
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timers", timers);
+        json.put("counters", new TreeMap<>(Metrics.counters()));
+        return json;
+    }
+
+    // JSON shapes
+
+    private static Map<String, Object> expenseJson(Expense expense) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", expense.getExpenseId());
+        json.put("name", expense.getName());
+        json.put("description", expense.getDescription());
+        json.put("amount", Money.format(expense.getAmount()));
+        json.put("payer", expense.getPayer());
+        json.put("participants", expense.getParticipants());
+        json.put("date", expense.getDate());
+        json.put("category", expense.getCategory());
+        json.put("groupId", expense.getGroupId());
+        return json;
+    }
+
+    // Oldest first; asked for one row more than limit to tell if there are more
+    private static Map<String, Object> rangeJson(List<Expense> range, int limit) {
+        List<Object> expenses = new ArrayList<>(Math.min(range.size(), limit));
+        for (int i = 0; i < range.size() && i < limit; i++) {
+            expenses.add(expenseJson(range.get(i)));
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("expenses", expenses);
+        json.put("truncated", range.size() > limit);
+        return json;
+    }
+
+    private static Map<String, Object> pageJson(ExpensePage page) {
+        List<Object> expenses = new ArrayList<>(page.getExpenses().size());
+        page.getExpenses().forEach(expense -> expenses.add(expenseJson(expense)));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("expenses", expenses);
+        json.put("nextToken", page.getNextToken());
+        return json;
+    }
+
+    private static Map<String, Object> groupJson(Group group) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", group.getGroupId());
+        json.put("name", group.getGroupName());
+        json.put("description", group.getDescription());
+        json.put("creator", group.getCreator());
+        json.put("createdAt", dtf.format(group.getCreatedAt()));
+        json.put("members", group.getMembers());
+        return json;
+    }
+
+    private static List<Object> groupsJson(List<Group> groups) {
+        List<Object> json = new ArrayList<>(groups.size());
+        groups.forEach(group -> json.add(groupJson(group)));
+        return json;
+    }
+
+    // Request parsing
+
+    private User authenticate(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) return null;
+
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = credentials.indexOf(':');
+        if (colon < 0) return null;
+
+        User user = users.get(credentials.substring(0, colon));
+        String password = credentials.substring(colon + 1);
+        return user != null && !password.trim().isEmpty() && user.checkPassword(password) ? user : null;
+    }
+
+    private boolean isMember(User user, String groupId) {
+        Group group = expenseManager.getGroupById(groupId);
+        return group != null && group.hasMember(user.getUsername());
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is too large");
+            }
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            return text.isBlank() ? new LinkedHashMap<>() : Json.parseObject(text);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int pageSize(Map<String, String> query) {
+        String size = query.get("size");
+        if (size == null) return PAGE_SIZE;
+        try {
+            return Math.min(MAX_PAGE_SIZE, Integer.parseInt(size));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size: " + size);
+        }
+    }
+
+    // The last moment of the day, so "as of" a date includes all of it
+    private static LocalDateTime endOf(LocalDate date) {
+        return date.atTime(LocalTime.MAX);
+    }
+
+    private static LocalDate day(String value, String name) {
+        if (value == null) throw new IllegalArgumentException("Missing " + name + " (yyyy-MM-dd)");
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + name + ", use yyyy-MM-dd: " + value);
+        }
+    }
+
+    private static YearMonth month(String value, String name) {
+        if (value == null) throw new IllegalArgumentException("Missing " + name + " (MM/yyyy)");
+        try {
+            return YearMonth.parse(value, monthFormat);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + name + ", use MM/yyyy: " + value);
+        }
+    }
+
+    private static long amount(Object value) {
+        if (!(value instanceof String)) throw new IllegalArgumentException("Missing amount");
+        try {
+            return Money.parse((String) value);
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount: " + value);
+        }
+    }
+
+    // Everyone must be a known user, and for a group expense a member of the group
+    private String[] participants(Map<String, Object> body, String groupId) {
+        List<String> participants = stringList(body, "participants");
+        if (participants.isEmpty()) throw new IllegalArgumentException("At least one participant is required");
+        Group group = groupId != null ? expenseManager.getGroupById(groupId) : null;
+        String[] names = new String[participants.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = existingUser(participants.get(i).trim());
+            if (group != null && !group.hasMember(names[i])) {
+                throw new IllegalArgumentException(names[i] + " is not a member of this group");
+            }
+        }
+        return names;
+    }
+
+    private String existingUser(String username) {
+        if (!users.containsKey(username)) throw new IllegalArgumentException("No such user: " + username);
+        return username;
+    }
+
+    private static String requiredString(Map<String, Object> body, String field) {
+        String value = optionalString(body, field);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing " + field);
+        return value;
+    }
+
+    private static String optionalString(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException(field + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static List<String> stringList(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        if (value == null) return new ArrayList<>();
+        if (!(value instanceof List)) throw new IllegalArgumentException(field + " must be an array");
+        List<String> strings = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (!(item instanceof String)) throw new IllegalArgumentException(field + " must hold strings");
+            strings.add((String) item);
+        }
+        return strings;
+    }
+
+    private static String[] segments(String path) {
+        return Arrays.stream(path.split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+
+    // Ids are replaced so latency is tracked per route, not per expense or group
+    private static String route(String[] path) {
+        if (path.length == 0) return "/";
+        StringBuilder route = new StringBuilder();
+        for (int i = 0; i < path.length; i++) {
+            boolean id = i == 1 && (path[0].equals("expenses") || path[0].equals("groups"));
+            route.append('/').append(id ? "{id}" : path[i]);
+        }
+        return route.toString();
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        if (response.status == 401) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"smartsplit\"");
+        }
+        if (response.body == null) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        byte[] bytes = Json.write(response.body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response ok(Object body) { return new Response(200, body); }
+        static Response created(Object body) { return new Response(201, body); }
+        static Response noContent() { return new Response(204, null); }
+        static Response unauthorized() { return error(401, "Authentication required"); }
+        static Response methodNotAllowed() { return error(405, "Method not allowed"); }
+
+        static Response error(int status, String message) {
+            return new Response(status, Collections.singletonMap("error", message));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Streams expenses, group balances and the monthly spending rollup to CSV or
+// JSON, picked by file extension as BulkImporter does. Rows come straight off
+// ExpenseManager's own structures: each is formatted into one reused buffer
+// and encoded into a direct byte buffer that is drained to the file channel
+// whenever it fills, so the extra heap stays the same however many rows there
+// are. Expense exports use the field names BulkImporter reads, so they
+// re-import as they are. Every export returns the number of rows written.
+public class Exporter {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private static final String[] EXPENSE_COLUMNS =
+            {"name", "description", "amount", "payer", "participants", "date", "category", "groupId", "id"};
+    private static final String[] BALANCE_COLUMNS = {"groupId", "groupName", "user", "balance"};
+    private static final String[] MONTHLY_COLUMNS = {"user", "month", "category", "total", "count", "min", "max"};
+
+    public static long exportExpenses(ExpenseManager expenseManager, Path file) throws IOException {
+        return export(file, EXPENSE_COLUMNS, rows -> expenseManager.withExpenses(expenses -> {
+            for (Expense expense : expenses) {
+                rows.text(expense.getName());
+                rows.text(expense.getDescription());
+                rows.number(Money.format(expense.getAmount()));
+                rows.text(expense.getPayer());
+                rows.users(expense.getParticipantIds());
+                rows.text(expense.getDate());
+                rows.text(expense.getCategory());
+                rows.text(expense.getGroupId());
+                rows.text(expense.getExpenseId());
+                rows.end();
+            }
+        }));
+    }
+
+    public static long exportGroupBalances(ExpenseManager expenseManager, Path file) throws IOException {
+        return export(file, BALANCE_COLUMNS, rows -> expenseManager.forEachGroupBalance((group, userId, amount) -> {
+            rows.text(group.getGroupId());
+            rows.text(group.getGroupName());
+            rows.text(SymbolTable.USERS.name(userId));
+            rows.number(Money.format(amount));
+            rows.end();
+        }));
+    }
+
+    public static long exportMonthlyTotals(ExpenseManager expenseManager, Path file) throws IOException {
+        return export(file, MONTHLY_COLUMNS, rows -> expenseManager.forEachMonthlyTotal(
+                (userId, month, category, total, count, min, max) -> {
+                    rows.text(SymbolTable.USERS.name(userId));
+                    rows.text(month != SpendingRollup.NO_MONTH ? month(month) : null);
+                    rows.text(category);
+                    rows.number(Money.format(total));
+                    rows.number(Integer.toString(count));
+                    rows.number(Money.format(min));
+                    rows.number(Money.format(max));
+                    rows.end();
+                }));
+    }
+
+    private interface RowSource {
+        void writeTo(RowWriter rows);
+    }
+
+    private static long export(Path file, String[] columns, RowSource source) throws IOException {
+        long start = System.nanoTime();
+        long[] written = new long[1];
+        try {
+            AtomicFiles.writeChannel(file, channel -> {
+                RowWriter rows = new RowWriter(channel, BulkImporter.isJson(file), columns);
+                source.writeTo(rows);
+                written[0] = rows.finish();
+            });
+        } catch (UncheckedIOException e) {
+            // Visitors can't throw, so write failures come back wrapped
+            throw e.getCause();
+        }
+        Metrics.record("export", System.nanoTime() - start);
+        return written[0];
+    }
+
+    // Month keys are year * 12 + (month - 1), as ExpenseManager builds them
+    private static String month(int key) {
+        int month = Math.floorMod(key, 12) + 1;
+        return Math.floorDiv(key, 12) + (month < 10 ? "-0" : "-") + month;
+    }
+
+    // CSV with a header row, or a JSON array holding one object per line
+    private static class RowWriter {
+        private final FileChannel channel;
+        private final boolean json;
+        private final String[] columns;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final StringBuilder row = new StringBuilder(256);
+        private int column;
+        private long rows;
+
+        RowWriter(FileChannel channel, boolean json, String[] columns) {
+            this.channel = channel;
+            this.json = json;
+            this.columns = columns;
+            if (json) {
+                row.append('[');
+            } else {
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) row.append(',');
+                    row.append(columns[i]);
+                }
+                row.append('\n');
+            }
+            write();
+        }
+
+        void text(String value) {
+            nextColumn();
+            if (value == null) {
+                row.append(json ? "null" : "");
+            } else if (json) {
+                Json.quote(value, row);
+            } else {
+                csv(value);
+            }
+        }
+
+        // Already valid as a JSON number, and never needs CSV quoting
+        void number(String value) {
+            nextColumn();
+            row.append(value);
+        }
+
+        // A JSON array of names, or in CSV one field separated by ';'
+        void users(int[] userIds) {
+            nextColumn();
+            if (json) row.append('[');
+            for (int i = 0; i < userIds.length; i++) {
+                if (i > 0) row.append(json ? ',' : ';');
+                String name = SymbolTable.USERS.name(userIds[i]);
+                // Usernames never hold CSV separators
+                if (json) {
+                    Json.quote(name, row);
+                } else {
+                    row.append(name);
+                }
+            }
+            if (json) row.append(']');
+        }
+
+        void end() {
+            row.append(json ? "}" : "\n");
+            column = 0;
+            rows++;
+            write();
+        }
+
+        long finish() {
+            if (json) row.append(rows > 0 ? "\n]\n" : "]\n");
+            write();
+            drain();
+            return rows;
+        }
+
+        private void nextColumn() {
+            if (column == 0) {
+                if (json) row.append(rows > 0 ? ",\n{" : "\n{");
+            } else {
+                row.append(',');
+            }
+            if (json) {
+                Json.quote(columns[column], row);
+                row.append(':');
+            }
+            column++;
+        }
+
+        private void csv(String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == ';' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                row.append(value);
+                return;
+            }
+            row.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') row.append('"');
+                row.append(c);
+            }
+            row.append('"');
+        }
+
+        // Encodes the pending text into the byte buffer, draining it as often as needed
+        private void write() {
+            CharBuffer chars = CharBuffer.wrap(row);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (!result.isOverflow()) break;
+                drain();
+            }
+            row.setLength(0);
+        }
+
+        private void drain() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -1,129 +1,505 @@
-import java.io.*;
-import java.nio.file.*;
-import java.util.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
-public class FileManager {
-    private static final String DATA_DIR = "data/";
-    private static final String EXPENSE_FILE = "expenses.txt";
-    private static final String USER_FILE = "users.txt";
-    private static final String GROUP_FILE = "groups.txt";
-    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-    static {
-        new File(DATA_DIR).mkdirs();
-    }
-
-    public static void saveAllData(List<User> users, List<Expense> expenses, List<Group> groups) {
-        saveUsers(users);
-        saveExpenses(expenses);
-        saveGroups(groups);
-    }
-
-    public static void saveUsers(List<User> users) {
-        try (PrintWriter writer = new PrintWriter(DATA_DIR + USER_FILE)) {
-            for (User user : users) {
-                writer.println(user.getUsername() + "|" +
-                        user.getName() + "|" +
-                        user.getEmail() + "|" +
-                        user.getCurrency() + "|" +
-                        String.join(",", user.getCategories()));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public static void saveExpenses(List<Expense> expenses) {
-        try (PrintWriter writer = new PrintWriter(DATA_DIR + EXPENSE_FILE)) {
-            for (Expense expense : expenses) {
-                writer.println(expense.getTitle() + "|" +
-                        expense.getDescription() + "|" +
-                        expense.getAmount() + "|" +
-                        expense.getPayer() + "|" +
-                        String.join(",", expense.getParticipants()) + "|" +
-                        expense.getTimestamp() + "|" +
-                        expense.getCategory() + "|" +
-                        (expense.getGroupId() != null ? expense.getGroupId() : ""));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public static void saveGroups(List<Group> groups) {
-        try (PrintWriter writer = new PrintWriter(DATA_DIR + GROUP_FILE)) {
-            for (Group group : groups) {
-                writer.println(group.getGroupId() + "|" +
-                        group.getGroupName() + "|" +
-                        group.getDescription() + "|" +
-                        group.getCreator() + "|" +
-                        String.join(",", group.getMembers()) + "|" +
-                        dtf.format(group.getCreatedAt()));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public static List<User> loadUsers() {
-        List<User> users = new ArrayList<>();
-        try (Scanner scanner = new Scanner(new File(DATA_DIR + USER_FILE))) {
-            while (scanner.hasNextLine()) {
-                String[] parts = scanner.nextLine().split("\\|");
-                if (parts.length >= 4) {
-                    User user = new User(parts[0], parts[1], parts[2], parts[3]);
-                    if (parts.length >= 5) user.setCurrency(parts[4]);
-                    if (parts.length >= 6) {
-                        for (String category : parts[5].split(",")) {
-                            if (!category.isEmpty()) user.addCategory(category);
-                        }
-                    }
-                    users.add(user);
-                }
-            }
-        } catch (IOException e) {
-            // File doesn't exist yet
-        }
-        return users;
-    }
-
-    public static List<Expense> loadExpenses() {
-        List<Expense> expenses = new ArrayList<>();
-        try (Scanner scanner = new Scanner(new File(DATA_DIR + EXPENSE_FILE))) {
-            while (scanner.hasNextLine()) {
-                String[] parts = scanner.nextLine().split("\\|");
-                if (parts.length >= 7) {
-                    String groupId = parts.length >= 8 && !parts[7].isEmpty() ? parts[7] : null;
-                    expenses.add(new Expense(
-                            parts[0], parts[1], Double.parseDouble(parts[2]),
-                            parts[3], parts[4].split(","), parts[5],
-                            parts[6], groupId
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            // File doesn't exist yet
-        }
-        return expenses;
-    }
-
-    public static List<Group> loadGroups() {
-        List<Group> groups = new ArrayList<>();
-        try (Scanner scanner = new Scanner(new File(DATA_DIR + GROUP_FILE))) {
-            while (scanner.hasNextLine()) {
-                String[] parts = scanner.nextLine().split("\\|");
-                if (parts.length == 6) {
-                    groups.add(new Group(
-                            parts[1], parts[2], parts[3],
-                            new HashSet<>(Arrays.asList(parts[4].split(",")))
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            // File doesn't exist yet
-        }
-        return groups;
-    }
-}
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class FileManager {
+    // Overridable so tools and benchmarks can work on a scratch copy
+    private static final String DATA_DIR = System.getProperty("smartsplit.dataDir", "data") + "/";
+    // Binary snapshots are the primary store; see BinarySnapshot
+    private static final String EXPENSE_SNAPSHOT = "expenses.bin";
+    private static final String USER_SNAPSHOT = "users.bin";
+    private static final String GROUP_SNAPSHOT = "groups.bin";
+    private static final String EXPENSE_LOG = "expenses.log";
+    private static final String USER_LOG = "users.log";
+    private static final String GROUP_LOG = "groups.log";
+    // Change history in checkpointed blocks; see ExpenseEventLog
+    private static final String EVENT_DIR = "events";
+    // The single log history used to be kept in, replaced by EVENT_DIR
+    private static final String LEGACY_EVENT_LOG = "events.log";
+    // Pipe-delimited text, kept for import/export
+    private static final String EXPENSE_FILE = "expenses.txt";
+    private static final String USER_FILE = "users.txt";
+    private static final String GROUP_FILE = "groups.txt";
+    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // How long flush() waits for more changes before writing them together
+    private static final long COALESCE_MS = 50;
+
+    static {
+        new File(DATA_DIR).mkdirs();
+        // Ctrl-C or a kill still gets queued changes onto disk
+        Runtime.getRuntime().addShutdownHook(new Thread(FileManager::closeJournal, "flush-on-exit"));
+    }
+
+    private static final ExpenseJournal journal = new ExpenseJournal(
+            Paths.get(DATA_DIR, EXPENSE_LOG),
+            new ExpenseJournal.Snapshot() {
+                @Override
+                public List<Expense> read() throws IOException {
+                    Path snapshot = Paths.get(DATA_DIR, EXPENSE_SNAPSHOT);
+                    if (Files.exists(snapshot)) return BinarySnapshot.readExpenses(snapshot);
+
+                    // Before the first binary save, start from the text file. Rows
+                    // from before ids were stored get a random one, so the snapshot
+                    // is written now: journal records made against those ids must
+                    // still match them on the next load or compaction.
+                    Path text = Paths.get(DATA_DIR, EXPENSE_FILE);
+                    List<Expense> expenses = ParallelExpenseLoader.load(text);
+                    if (!expenses.isEmpty()) {
+                        BinarySnapshot.writeExpenses(snapshot, expenses);
+                    }
+                    return expenses;
+                }
+
+                @Override
+                public void write(Collection<Expense> expenses) throws IOException {
+                    BinarySnapshot.writeExpenses(Paths.get(DATA_DIR, EXPENSE_SNAPSHOT), expenses);
+                }
+            });
+
+    // Users and groups are saved by appending only what changed; see RecordJournal
+    private static final RecordJournal<User> userJournal = new RecordJournal<>(
+            Paths.get(DATA_DIR, USER_LOG),
+            new RecordJournal.Codec<User>() {
+                @Override
+                public String key(User user) {
+                    return user.getUsername();
+                }
+
+                @Override
+                public String format(User user) {
+                    return formatUser(user);
+                }
+
+                @Override
+                public User parse(String line) {
+                    return parseUser(line);
+                }
+            },
+            new RecordJournal.Snapshot<User>() {
+                @Override
+                public List<User> read() throws IOException {
+                    Path snapshot = Paths.get(DATA_DIR, USER_SNAPSHOT);
+                    return Files.exists(snapshot) ? BinarySnapshot.readUsers(snapshot) : loadTextUsers();
+                }
+
+                @Override
+                public void write(Collection<User> users) throws IOException {
+                    BinarySnapshot.writeUsers(Paths.get(DATA_DIR, USER_SNAPSHOT), users);
+                }
+            });
+
+    private static final RecordJournal<Group> groupJournal = new RecordJournal<>(
+            Paths.get(DATA_DIR, GROUP_LOG),
+            new RecordJournal.Codec<Group>() {
+                @Override
+                public String key(Group group) {
+                    return group.getGroupId();
+                }
+
+                @Override
+                public String format(Group group) {
+                    return formatGroup(group);
+                }
+
+                @Override
+                public Group parse(String line) {
+                    return parseGroup(line);
+                }
+            },
+            new RecordJournal.Snapshot<Group>() {
+                @Override
+                public List<Group> read() throws IOException {
+                    Path snapshot = Paths.get(DATA_DIR, GROUP_SNAPSHOT);
+                    return Files.exists(snapshot) ? BinarySnapshot.readGroups(snapshot) : loadTextGroups();
+                }
+
+                @Override
+                public void write(Collection<Group> groups) throws IOException {
+                    BinarySnapshot.writeGroups(Paths.get(DATA_DIR, GROUP_SNAPSHOT), groups);
+                }
+            });
+
+    // Changed since the last flush, by key; a later change to the same record replaces the earlier one
+    private static final Map<String, User> dirtyUsers = new LinkedHashMap<>();
+    private static final Map<String, Group> dirtyGroups = new LinkedHashMap<>();
+    private static final Set<String> removedGroups = new LinkedHashSet<>();
+    private static final EventStore eventStore = new EventStore(Paths.get(DATA_DIR, EVENT_DIR), FileManager::flush);
+
+    // Write-behind for users and groups: a burst of flush() calls becomes one append
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "record-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static void saveAllData(List<User> users, List<Expense> expenses, List<Group> groups) {
+        saveUsers(users);
+        saveExpenses(expenses);
+        saveGroups(groups);
+    }
+
+    // Full rewrite of every user; for imports. Day-to-day changes go through markDirty
+    public static void saveUsers(List<User> users) {
+        synchronized (dirtyUsers) {
+            dirtyUsers.clear();
+            userJournal.rewrite(users);
+        }
+    }
+
+    public static void markDirty(User user) {
+        synchronized (dirtyUsers) {
+            dirtyUsers.put(user.getUsername(), user);
+        }
+    }
+
+    public static void markDirty(Group group) {
+        synchronized (dirtyGroups) {
+            removedGroups.remove(group.getGroupId());
+            dirtyGroups.put(group.getGroupId(), group);
+        }
+    }
+
+    public static void markRemoved(Group group) {
+        synchronized (dirtyGroups) {
+            dirtyGroups.remove(group.getGroupId());
+            removedGroups.add(group.getGroupId());
+        }
+    }
+
+    // Queues a write of everything marked so far and returns at once. Calls
+    // within COALESCE_MS of each other share a single append.
+    public static void flush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.schedule(() -> {
+                flushScheduled.set(false);
+                flushNow();
+            }, COALESCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Writes only the users and groups marked since the last flush; every
+    // other record on disk is left as it is. Records that fail to write stay
+    // marked unless something newer has replaced them, whether the journal
+    // reported the failure or threw, and a throw in one block doesn't stop the next.
+    public static void flushNow() {
+        synchronized (dirtyUsers) {
+            Map<String, User> users = new LinkedHashMap<>(dirtyUsers);
+            dirtyUsers.clear();
+            boolean saved = false;
+            try {
+                saved = userJournal.append(users.values(), Collections.emptySet());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (!saved) {
+                users.forEach(dirtyUsers::putIfAbsent);
+            }
+        }
+        synchronized (dirtyGroups) {
+            Map<String, Group> groups = new LinkedHashMap<>(dirtyGroups);
+            Set<String> removed = new LinkedHashSet<>(removedGroups);
+            dirtyGroups.clear();
+            removedGroups.clear();
+            boolean saved = false;
+            try {
+                saved = groupJournal.append(groups.values(), removed);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (!saved) {
+                groups.forEach(dirtyGroups::putIfAbsent);
+                removedGroups.addAll(removed);
+            }
+        }
+        eventStore.flush();
+    }
+
+    // Opens the manager's saved history, which persists every event it
+    // records from here on. The first time, the events in the old single
+    // events.log are copied in; that file is left in place and not read again.
+    public static void attachHistory(ExpenseManager expenseManager) {
+        expenseManager.openHistory(eventStore, FileManager::loadLegacyEvents);
+    }
+
+    private static List<ExpenseEvent> loadLegacyEvents() {
+        List<ExpenseEvent> events = new ArrayList<>();
+        Path file = Paths.get(DATA_DIR, LEGACY_EVENT_LOG);
+        if (!Files.exists(file)) return events;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A torn last line from a crash is skipped
+                ExpenseEvent event = ExpenseEvent.parse(line);
+                if (event != null) events.add(event);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return events;
+    }
+
+    public static void saveExpenses(Collection<Expense> expenses) {
+        journal.rewrite(expenses);
+    }
+
+    // Journal mode: record a single change instead of rewriting the whole file
+    public static void appendExpense(Expense expense) {
+        journal.appendAdd(expense);
+    }
+
+    public static void appendExpenseUpdate(Expense expense) {
+        journal.appendUpdate(expense);
+    }
+
+    public static void appendExpenseRemoval(String expenseId) {
+        journal.appendRemove(expenseId);
+    }
+
+    // A whole batch of changes in one journal write; pass as an ExpenseManager.BatchWriter
+    public static boolean writeExpenseBatch(List<ExpenseManager.Change> changes) {
+        return journal.writeBatch(changes);
+    }
+
+    // Drains both write-behind queues; safe to call more than once
+    public static void closeJournal() {
+        flushNow();
+        journal.close();
+    }
+
+    static String formatExpense(Expense expense) {
+        return escape(expense.getTitle()) + "|" +
+                escape(expense.getDescription()) + "|" +
+                Money.format(expense.getAmount()) + "|" +
+                escape(expense.getPayer()) + "|" +
+                joinEscaped(Arrays.asList(expense.getParticipants())) + "|" +
+                escape(expense.getTimestamp()) + "|" +
+                escape(expense.getCategory()) + "|" +
+                (expense.getGroupId() != null ? escape(expense.getGroupId()) : "") + "|" +
+                escape(expense.getExpenseId());
+    }
+
+    // Null for a line that doesn't parse, such as one torn by a crash
+    static Expense parseExpense(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 7) return null;
+        try {
+            String groupId = parts.length >= 8 && !parts[7].isEmpty() ? unescape(parts[7]) : null;
+            // Files written before ids were persisted get a fresh id
+            String expenseId = parts.length >= 9 && !parts[8].isEmpty()
+                    ? unescape(parts[8]) : UUID.randomUUID().toString();
+            return new Expense(
+                    expenseId, unescape(parts[0]), unescape(parts[1]), Money.parse(parts[2]),
+                    unescape(parts[3]), splitEscaped(parts[4]), unescape(parts[5]),
+                    unescape(parts[6]), groupId
+            );
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    // Text fields in every record format (expenses, users, groups, and their
+    // logs) are written with '\\', '|', ',' and line breaks escaped, so no
+    // value can split a record, a list or a line. Files from before escaping
+    // hold no such sequences and read back unchanged.
+    static String escape(String field) {
+        int i = 0;
+        while (i < field.length() && "\\|,\n\r".indexOf(field.charAt(i)) < 0) i++;
+        if (i == field.length()) return field;
+
+        StringBuilder escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+        for (; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '|': escaped.append("\\p"); break;
+                case ',': escaped.append("\\c"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String field) {
+        int i = field.indexOf('\\');
+        if (i < 0) return field;
+
+        StringBuilder text = new StringBuilder(field.length()).append(field, 0, i);
+        for (; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                text.append(c);
+                continue;
+            }
+            switch (field.charAt(++i)) {
+                case '\\': text.append('\\'); break;
+                case 'p': text.append('|'); break;
+                case 'c': text.append(','); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                // Not one of ours: keep it as written
+                default: text.append(c).append(field.charAt(i));
+            }
+        }
+        return text.toString();
+    }
+
+    static String joinEscaped(Collection<String> items) {
+        StringJoiner joined = new StringJoiner(",");
+        for (String item : items) joined.add(escape(item));
+        return joined.toString();
+    }
+
+    // Same items as field.split(","), unescaped
+    static String[] splitEscaped(String field) {
+        String[] items = field.split(",");
+        for (int i = 0; i < items.length; i++) items[i] = unescape(items[i]);
+        return items;
+    }
+
+    // Full rewrite of every group; for imports. Day-to-day changes go through markDirty
+    public static void saveGroups(List<Group> groups) {
+        synchronized (dirtyGroups) {
+            dirtyGroups.clear();
+            removedGroups.clear();
+            groupJournal.rewrite(groups);
+        }
+    }
+
+    public static List<User> loadUsers() {
+        return userJournal.load();
+    }
+
+    public static List<Expense> loadExpenses() {
+        return journal.load();
+    }
+
+    public static List<Group> loadGroups() {
+        return groupJournal.load();
+    }
+
+    // Writes the pipe-delimited text files next to the binary snapshots. Each
+    // file is replaced atomically, so a failed export leaves the old one intact.
+    public static boolean exportText(List<User> users, List<Expense> expenses, List<Group> groups) {
+        try {
+            writeText(USER_FILE, users, FileManager::formatUser);
+            writeText(EXPENSE_FILE, expenses, FileManager::formatExpense);
+            writeText(GROUP_FILE, groups, FileManager::formatGroup);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static <T> void writeText(String file, List<T> records,
+                                      Function<T, String> format) throws IOException {
+        AtomicFiles.write(Paths.get(DATA_DIR, file), out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (T record : records) {
+                writer.write(format.apply(record));
+                writer.write('\n');
+            }
+            writer.flush();
+        });
+    }
+
+    // Replaces the binary snapshots with the contents of the text files
+    public static void importText() {
+        try {
+            List<Expense> expenses = ParallelExpenseLoader.load(Paths.get(DATA_DIR, EXPENSE_FILE));
+            saveAllData(loadTextUsers(), expenses, loadTextGroups());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static String formatUser(User user) {
+        return escape(user.getUsername()) + "|" +
+                escape(user.getPassword()) + "|" +
+                escape(user.getName()) + "|" +
+                escape(user.getEmail()) + "|" +
+                escape(user.getCurrency()) + "|" +
+                joinEscaped(user.getCategories());
+    }
+
+    // Null for a line that doesn't parse
+    static User parseUser(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 4) return null;
+        for (int i = 0; i < Math.min(parts.length, 5); i++) parts[i] = unescape(parts[i]);
+        User user = new User(parts[0], parts[1], parts[2], parts[3]);
+        if (parts.length >= 5) {
+            List<String> categories = parts.length >= 6
+                    ? Arrays.asList(splitEscaped(parts[5]))
+                    : user.getCategories();
+            user = new User(parts[0], parts[1], parts[2], parts[3], parts[4], categories);
+        }
+        return user;
+    }
+
+    static String formatGroup(Group group) {
+        return escape(group.getGroupId()) + "|" +
+                escape(group.getGroupName()) + "|" +
+                escape(group.getDescription()) + "|" +
+                escape(group.getCreator()) + "|" +
+                joinEscaped(group.getMembers()) + "|" +
+                dtf.format(group.getCreatedAt());
+    }
+
+    // Null for a line that doesn't parse
+    static Group parseGroup(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length != 6) return null;
+        LocalDateTime createdAt;
+        try {
+            createdAt = LocalDateTime.parse(parts[5], dtf);
+        } catch (DateTimeParseException e) {
+            createdAt = LocalDateTime.now();
+        }
+        return new Group(
+                unescape(parts[0]), unescape(parts[1]), unescape(parts[2]), unescape(parts[3]),
+                new HashSet<>(Arrays.asList(splitEscaped(parts[4]))),
+                createdAt
+        );
+    }
+
+    private static List<User> loadTextUsers() {
+        List<User> users = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new File(DATA_DIR + USER_FILE), "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                User user = parseUser(scanner.nextLine());
+                if (user != null) users.add(user);
+            }
+        } catch (IOException e) {
+            // File doesn't exist yet
+        }
+        return users;
+    }
+
+    private static List<Group> loadTextGroups() {
+        List<Group> groups = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new File(DATA_DIR + GROUP_FILE), "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                Group group = parseGroup(scanner.nextLine());
+                if (group != null) groups.add(group);
+            }
+        } catch (IOException e) {
+            // File doesn't exist yet
+        }
+        return groups;
+    }
+}
@@ -1,39 +1,119 @@
-import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.UUID;
-
-public class Group {
-    private String groupId;
-    private String groupName;
-    private String description;
-    private String creator;
-    private Set<String> members;
-    private LocalDateTime createdAt;
-
-    public Group(String groupName, String description, String creator, Set<String> members) {
-        this.groupId = UUID.randomUUID().toString();
-        this.groupName = groupName;
-        this.description = description;
-        this.creator = creator;
-        this.members = new HashSet<>(members);
-        this.createdAt = LocalDateTime.now();
-    }
-
-    // Getters
-    public String getGroupId() { return groupId; }
-    public String getGroupName() { return groupName; }
-    public String getDescription() { return description; }
-    public String getCreator() { return creator; }
-    public Set<String> getMembers() { return members; }
-    public LocalDateTime getCreatedAt() { return createdAt; }
-
-    public void addMember(String username) {
-        members.add(username);
-    }
-
-    @Override
-    public String toString() {
-        return String.format("%s (%d members)", groupName, members.size());
-    }
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+public class Group {
+    private String groupId;
+    private String groupName;
+    private String description;
+    private String creator;
+    // Sorted SymbolTable.USERS ids; replaced, never changed in place, so
+    // readers on other threads always see a whole array
+    private volatile int[] members;
+    private LocalDateTime createdAt;
+    private volatile MembershipListener listener;
+
+    // Lets ExpenseManager keep its user-to-groups index in step with edits
+    // made directly on the group
+    public interface MembershipListener {
+        void memberAdded(Group group, int userId);
+        void memberRemoved(Group group, int userId);
+    }
+
+    public Group(String groupName, String description, String creator, Set<String> members) {
+        this(UUID.randomUUID().toString(), groupName, description, creator, members, LocalDateTime.now());
+    }
+
+    // Used when loading saved groups so the id survives a restart
+    public Group(String groupId, String groupName, String description, String creator,
+                 Set<String> members, LocalDateTime createdAt) {
+        this.groupId = SymbolTable.GROUPS.name(SymbolTable.GROUPS.intern(groupId));
+        this.groupName = groupName;
+        this.description = description;
+        this.creator = creator;
+        this.members = new int[0];
+        for (String member : members) {
+            addMember(member);
+        }
+        this.createdAt = createdAt;
+    }
+
+    // Getters
+    public String getGroupId() { return groupId; }
+    public String getGroupName() { return groupName; }
+    public String getDescription() { return description; }
+    public String getCreator() { return creator; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public int getMemberCount() { return members.length; }
+
+    // The array must not be modified
+    public int[] getMemberIds() { return members; }
+
+    // Resolves member names; use hasMember for membership checks
+    public Set<String> getMembers() {
+        Set<String> names = new LinkedHashSet<>();
+        for (int member : members) {
+            names.add(SymbolTable.USERS.name(member));
+        }
+        return names;
+    }
+
+    // Setters
+    public void setGroupName(String groupName) { this.groupName = groupName; }
+    public void setDescription(String description) { this.description = description; }
+
+    public boolean hasMember(String username) {
+        return hasMember(SymbolTable.USERS.lookup(username));
+    }
+
+    public boolean hasMember(int userId) {
+        return userId >= 0 && Arrays.binarySearch(members, userId) >= 0;
+    }
+
+    public void addMember(String username) {
+        int userId = SymbolTable.USERS.intern(username);
+        synchronized (this) {
+            int position = Arrays.binarySearch(members, userId);
+            if (position >= 0) return;
+
+            int insertAt = -position - 1;
+            int[] grown = new int[members.length + 1];
+            System.arraycopy(members, 0, grown, 0, insertAt);
+            grown[insertAt] = userId;
+            System.arraycopy(members, insertAt, grown, insertAt + 1, members.length - insertAt);
+            members = grown;
+        }
+        // Outside the monitor so the listener can take its own locks
+        MembershipListener current = listener;
+        if (current != null) current.memberAdded(this, userId);
+    }
+
+    // Returns false if the user was not a member
+    public boolean removeMember(String username) {
+        int userId = SymbolTable.USERS.lookup(username);
+        if (userId < 0) return false;
+        synchronized (this) {
+            int position = Arrays.binarySearch(members, userId);
+            if (position < 0) return false;
+
+            int[] shrunk = new int[members.length - 1];
+            System.arraycopy(members, 0, shrunk, 0, position);
+            System.arraycopy(members, position + 1, shrunk, position, members.length - position - 1);
+            members = shrunk;
+        }
+        MembershipListener current = listener;
+        if (current != null) current.memberRemoved(this, userId);
+        return true;
+    }
+
+    void setMembershipListener(MembershipListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d members)", groupName, members.length);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+// Open-addressing map from user id to a balance in minor units.
+// Updates neither box nor allocate except when the table grows.
+public class Ledger {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    public Ledger() {
+        this(8);
+    }
+
+    public Ledger(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public long get(int userId) {
+        int slot = find(userId);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    public void add(int userId, long delta) {
+        int slot = find(userId);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = userId;
+            size++;
+            if (size * 2 > keys.length) {
+                values[slot] = delta;
+                grow();
+                return;
+            }
+        }
+        values[slot] += delta;
+    }
+
+    public Ledger copy() {
+        Ledger copy = new Ledger();
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(EntryVisitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    public boolean sameBalances(Ledger other) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && values[i] != other.get(keys[i])) return false;
+        }
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY && other.values[i] != get(other.keys[i])) return false;
+        }
+        return true;
+    }
+
+    private int find(int userId) {
+        int mask = keys.length - 1;
+        int hash = userId * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != userId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public interface EntryVisitor {
+        void visit(int userId, long amount);
+    }
+}
@@ -1,5 +1,80 @@
+import java.util.List;
+
 public class Main {
     public static void main(String[] args) {
+        // Text import/export of the data files
+        if (args.length > 0 && args[0].equals("--import-text")) {
+            FileManager.importText();
+            System.out.println("Imported data/*.txt into binary snapshots");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export-text")) {
+            if (FileManager.exportText(FileManager.loadUsers(), FileManager.loadExpenses(), FileManager.loadGroups())) {
+                System.out.println("Exported binary snapshots to data/*.txt");
+            } else {
+                System.out.println("Export failed; existing data/*.txt files were left unchanged");
+            }
+            return;
+        }
+
+        // Bulk import of a CSV or JSON expense file; rejected rows go to the error report
+        if (args.length > 1 && args[0].equals("--import")) {
+            java.nio.file.Path input = java.nio.file.Paths.get(args[1]);
+            java.nio.file.Path errors = java.nio.file.Paths.get(args.length > 2 ? args[2] : args[1] + ".errors.txt");
+            List<User> users = FileManager.loadUsers();
+            ExpenseManager expenseManager = new ExpenseManager(FileManager.loadExpenses(), FileManager.loadGroups());
+            FileManager.attachHistory(expenseManager);
+            try {
+                BulkImporter.Result result = new BulkImporter(expenseManager, users).importFile(input, errors);
+                if (result.getImported() > 0) {
+                    expenseManager.withExpenses(FileManager::saveExpenses);
+                }
+                System.out.printf("Imported %,d of %,d rows; %,d rejected (see %s)\n",
+                        result.getImported(), result.getRead(), result.getRejected(), errors);
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            }
+            FileManager.closeJournal();
+            return;
+        }
+
+        // Streaming export: --export expenses|balances|monthly <file.csv|file.json>
+        if (args.length > 2 && args[0].equals("--export")) {
+            java.nio.file.Path output = java.nio.file.Paths.get(args[2]);
+            ExpenseManager expenseManager = new ExpenseManager(FileManager.loadExpenses(), FileManager.loadGroups());
+            try {
+                long rows;
+                switch (args[1]) {
+                    case "expenses": rows = Exporter.exportExpenses(expenseManager, output); break;
+                    case "balances": rows = Exporter.exportGroupBalances(expenseManager, output); break;
+                    case "monthly": rows = Exporter.exportMonthlyTotals(expenseManager, output); break;
+                    default:
+                        System.out.println("Unknown export " + args[1] + "; use expenses, balances or monthly");
+                        return;
+                }
+                System.out.printf("Exported %,d rows to %s\n", rows, output);
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // HTTP/JSON service instead of the console; optional port, default 8080
+        if (args.length > 0 && args[0].equals("--serve")) {
+            ExpenseServer server = new ExpenseServer();
+            try {
+                server.start(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                Metrics.report();
+            }));
+            return;
+        }
+
         // Initialize and start the application
         ConsoleUI app = new ConsoleUI();
         app.start();
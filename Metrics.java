@@ -0,0 +1,94 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide timers and counters. Timers keep a log-scale histogram so
+// percentiles can be reported without storing every sample.
+public final class Metrics {
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static void record(String name, long nanos) {
+        timers.computeIfAbsent(name, k -> new Timer()).record(nanos);
+    }
+
+    public static void increment(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    public static void increment(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long count(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public static Timer timer(String name) {
+        return timers.get(name);
+    }
+
+    // Snapshots for callers that render metrics themselves
+    public static Map<String, Timer> timers() {
+        return new HashMap<>(timers);
+    }
+
+    public static Map<String, Long> counters() {
+        Map<String, Long> values = new HashMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    public static void report() {
+        System.out.println("\033[1;33m=== METRICS ===");
+        timers.forEach((name, timer) -> System.out.printf("\033[0;37m%s: %s\n", name, timer));
+        counters.forEach((name, counter) -> System.out.printf("\033[0;37m%s: %d\n", name, counter.sum()));
+    }
+
+    public static class Timer {
+        // Bucket i holds samples in [2^i, 2^(i+1)) nanoseconds
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+            count.increment();
+            total.add(nanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double meanMillis() {
+            long samples = count.sum();
+            return samples == 0 ? 0 : total.sum() / 1e6 / samples;
+        }
+
+        // Upper bound of the bucket holding the given percentile, in milliseconds
+        public double percentileMillis(double percentile) {
+            long samples = count.sum();
+            long rank = (long) Math.ceil(samples * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return (1L << Math.min(i + 1, 62)) / 1e6;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms",
+                    count(), meanMillis(), percentileMillis(50), percentileMillis(99), percentileMillis(99.9));
+        }
+    }
+}
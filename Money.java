@@ -0,0 +1,26 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Amounts are held as long minor units (paise) so balances add up exactly
+public final class Money {
+    private static final int SCALE = 2;
+
+    private Money() {}
+
+    public static long parse(String amount) {
+        return new BigDecimal(amount.trim())
+                .setScale(SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    public static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE).toPlainString();
+    }
+
+    // Splits an amount across n people; the first (amount % n) get one extra minor unit
+    public static long share(long amount, int n, int index) {
+        long base = Math.floorDiv(amount, n);
+        return index < Math.floorMod(amount, n) ? base + 1 : base;
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Loads the pipe-delimited expense file by memory-mapping it, cutting it into
+// line-aligned chunks and parsing those on the common fork-join pool. Parsing
+// follows FileManager.parseExpense exactly, so results match the old Scanner
+// loader; rows come back in file order.
+public class ParallelExpenseLoader {
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long MAX_CHUNK = 64L << 20;
+    private static final int MAX_FIELDS = 9;
+
+    public static List<Expense> load(Path file) throws IOException {
+        if (!Files.exists(file)) return new ArrayList<>();
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            List<Expense> expenses = ForkJoinPool.commonPool().invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1));
+            Metrics.record("load.expenses", System.nanoTime() - start);
+            return expenses;
+        } catch (UncheckedIOException e) {
+            // Rethrow I/O failures from worker threads as they would surface serially
+            throw e.getCause();
+        }
+    }
+
+    // Chunk i covers [bounds[i], bounds[i + 1]); every boundary sits just after a newline
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (parallelism * 4L)));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = 0;
+        while (position < size) {
+            long next = position + target >= size ? size : nextLineStart(channel, position + target, size);
+            bounds.add(next);
+            position = next;
+        }
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static class ChunkTask extends RecursiveTask<List<Expense>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Expense> compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ChunkTask right = new ChunkTask(channel, bounds, middle, to);
+                right.fork();
+                List<Expense> result = new ChunkTask(channel, bounds, from, middle).compute();
+                result.addAll(right.join());
+                return result;
+            }
+            if (to == from) return new ArrayList<>();
+            try {
+                long offset = bounds[from];
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, bounds[to] - offset);
+                return parseChunk(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static List<Expense> parseChunk(MappedByteBuffer chunk) {
+        List<Expense> expenses = new ArrayList<>();
+        byte[] line = new byte[256];
+        int[] fieldStart = new int[MAX_FIELDS + 1];
+        int[] fieldEnd = new int[MAX_FIELDS + 1];
+        int limit = chunk.limit();
+        int position = 0;
+
+        while (position < limit) {
+            int end = position;
+            while (end < limit && chunk.get(end) != '\n') end++;
+            int length = end - position;
+            if (length > 0 && chunk.get(end - 1) == '\r') length--;
+            if (length > line.length) line = new byte[Math.max(length, line.length * 2)];
+            chunk.get(position, line, 0, length);
+            position = end + 1;
+
+            // Like parseExpense, a row that doesn't parse is skipped
+            try {
+                Expense expense = parseLine(line, length, fieldStart, fieldEnd);
+                if (expense != null) expenses.add(expense);
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                Metrics.increment("load.expenses.skipped");
+            }
+        }
+        return expenses;
+    }
+
+    private static Expense parseLine(byte[] line, int length, int[] fieldStart, int[] fieldEnd) {
+        // Split on '|' the way String.split does: trailing empty fields are dropped
+        int fields = 0;
+        int start = 0;
+        for (int i = 0; i <= length && fields <= MAX_FIELDS; i++) {
+            if (i == length || line[i] == '|') {
+                fieldStart[fields] = start;
+                fieldEnd[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        if (length == 0) return null;
+        boolean moreFields = fields > MAX_FIELDS;
+        while (!moreFields && fields > 0 && fieldStart[fields - 1] == fieldEnd[fields - 1]) fields--;
+        if (fields < 7) return null;
+
+        String groupId = fields >= 8 && fieldEnd[7] > fieldStart[7] ? text(line, fieldStart[7], fieldEnd[7]) : null;
+        String expenseId = fields >= 9 && fieldEnd[8] > fieldStart[8]
+                ? text(line, fieldStart[8], fieldEnd[8]) : UUID.randomUUID().toString();
+        return new Expense(
+                expenseId,
+                text(line, fieldStart[0], fieldEnd[0]),
+                text(line, fieldStart[1], fieldEnd[1]),
+                parseAmount(line, fieldStart[2], fieldEnd[2]),
+                text(line, fieldStart[3], fieldEnd[3]),
+                splitParticipants(line, fieldStart[4], fieldEnd[4]),
+                text(line, fieldStart[5], fieldEnd[5]),
+                text(line, fieldStart[6], fieldEnd[6]),
+                groupId
+        );
+    }
+
+    // Same result as field.split(",")
+    private static String[] splitParticipants(byte[] line, int from, int to) {
+        if (from == to) return new String[]{""};
+        List<String> names = new ArrayList<>();
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || line[i] == ',') {
+                names.add(text(line, start, i));
+                start = i + 1;
+            }
+        }
+        int count = names.size();
+        while (count > 0 && names.get(count - 1).isEmpty()) count--;
+        return names.subList(0, count).toArray(new String[0]);
+    }
+
+    // Plain decimals with up to two places are parsed in place; anything else
+    // goes through Money.parse
+    private static long parseAmount(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = i < to && line[i] == '-';
+        if (negative) i++;
+        long whole = 0;
+        int digits = 0;
+        while (i < to && line[i] >= '0' && line[i] <= '9' && digits < 16) {
+            whole = whole * 10 + (line[i++] - '0');
+            digits++;
+        }
+        long fraction = 0;
+        int places = 0;
+        if (i < to && line[i] == '.') {
+            i++;
+            while (i < to && line[i] >= '0' && line[i] <= '9' && places < 2) {
+                fraction = fraction * 10 + (line[i++] - '0');
+                places++;
+            }
+        }
+        if (i != to || digits == 0) {
+            return Money.parse(text(line, from, to));
+        }
+        if (places == 1) fraction *= 10;
+        long amount = whole * 100 + fraction;
+        return negative ? -amount : amount;
+    }
+
+    // Fields are escaped as in FileManager.escape
+    private static String text(byte[] line, int from, int to) {
+        return FileManager.unescape(new String(line, from, to - from, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Append-only log of keyed records (users, groups) on top of a snapshot.
+// A save appends just the changed records, one line each, and fsyncs once;
+// once the log passes a size threshold it is folded into the snapshot.
+//
+//   P|<formatted record>   insert or replace
+//   R|<escaped key>        remove
+public class RecordJournal<T> {
+    private static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+
+    private static final char PUT = 'P';
+    private static final char REMOVE = 'R';
+
+    private final Path logFile;
+    private final Codec<T> codec;
+    private final Snapshot<T> snapshot;
+
+    // How a record maps to its key and its one-line text form
+    public interface Codec<T> {
+        String key(T record);
+        String format(T record);
+        T parse(String line);
+    }
+
+    public interface Snapshot<T> {
+        List<T> read() throws IOException;
+        void write(Collection<T> records) throws IOException;
+    }
+
+    public RecordJournal(Path logFile, Codec<T> codec, Snapshot<T> snapshot) {
+        this.logFile = logFile;
+        this.codec = codec;
+        this.snapshot = snapshot;
+    }
+
+    public synchronized List<T> load() {
+        return new ArrayList<>(state().values());
+    }
+
+    // Costs O(changed records), plus an occasional compaction. Returns false
+    // if nothing was written, so the caller can keep the records and retry.
+    public synchronized boolean append(Collection<T> changed, Collection<String> removedKeys) {
+        if (changed.isEmpty() && removedKeys.isEmpty()) return true;
+
+        StringBuilder records = new StringBuilder();
+        for (T record : changed) {
+            records.append(PUT).append('|').append(codec.format(record)).append('\n');
+        }
+        for (String key : removedKeys) {
+            records.append(REMOVE).append('|').append(FileManager.escape(key)).append('\n');
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long sizeBefore = channel.size();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // Cut off a partial write so the retry doesn't land mid-line
+                channel.truncate(sizeBefore);
+                throw e;
+            }
+            Metrics.record("io.records.append", System.nanoTime() - start);
+            if (channel.size() >= COMPACT_THRESHOLD_BYTES) {
+                compact();
+            }
+            return true;
+        } catch (IOException e) {
+            Metrics.increment("io.errors");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Full rewrite; the log is dropped since the snapshot now holds everything
+    public synchronized void rewrite(Collection<T> records) {
+        try {
+            snapshot.write(records);
+            Files.deleteIfExists(logFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void compact() {
+        rewrite(state().values());
+    }
+
+    private Map<String, T> state() {
+        Map<String, T> state = new LinkedHashMap<>();
+        try {
+            for (T record : snapshot.read()) {
+                state.put(codec.key(record), record);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        replay(state);
+        return state;
+    }
+
+    private void replay(Map<String, T> state) {
+        if (!Files.exists(logFile)) return;
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A torn last line from a crash, or any other bad line, is skipped
+                T record = null;
+                if (line.length() >= 3 && line.charAt(1) == '|') {
+                    String body = line.substring(2);
+                    if (line.charAt(0) == REMOVE) {
+                        state.remove(FileManager.unescape(body));
+                        continue;
+                    }
+                    if (line.charAt(0) == PUT) {
+                        try {
+                            record = codec.parse(body);
+                        } catch (RuntimeException e) {
+                            record = null;
+                        }
+                    }
+                }
+                if (record != null) {
+                    state.put(codec.key(record), record);
+                } else {
+                    Metrics.increment("io.records.skipped");
+                    System.err.printf("Skipping unreadable record in %s: %s%n", logFile, line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+
+// Bounded cache for computed reports. Entries are dropped least recently used
+// first once there are more than maxEntries, and are treated as misses once
+// older than maxAgeMillis. Each entry is filed under the dependencies it was
+// built from (a user, a user's month, a group), so a change evicts only the
+// entries depending on what it touched. Hits, misses and evictions are
+// counted in Metrics under "cache.reports.*".
+public class ReportCache {
+    private final int maxEntries;
+    private final long maxAgeNanos;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Set<Key>> byDependency = new HashMap<>();
+
+    public ReportCache(int maxEntries, long maxAgeMillis) {
+        if (maxEntries <= 0 || maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and age must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = maxAgeMillis * 1_000_000;
+    }
+
+    // The cached value, or null on a miss
+    @SuppressWarnings("unchecked")
+    public synchronized <V> V get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.created > maxAgeNanos) {
+            remove(key);
+            Metrics.increment("cache.reports.expired");
+            entry = null;
+        }
+        Metrics.increment(entry != null ? "cache.reports.hits" : "cache.reports.misses");
+        return entry != null ? (V) entry.value : null;
+    }
+
+    // value must not change once cached; callers share it
+    public synchronized void put(Key key, Object value, Collection<String> dependencies) {
+        remove(key);
+        entries.put(key, new Entry(value, dependencies));
+        for (String dependency : dependencies) {
+            byDependency.computeIfAbsent(dependency, k -> new HashSet<>()).add(key);
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            Metrics.increment("cache.reports.evictions");
+        }
+    }
+
+    // Drops every entry built from the given dependency
+    public synchronized void invalidate(String dependency) {
+        Set<Key> keys = byDependency.remove(dependency);
+        if (keys == null) return;
+        for (Key key : new ArrayList<>(keys)) {
+            remove(key);
+        }
+        Metrics.increment("cache.reports.invalidations", keys.size());
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        byDependency.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) return;
+        for (String dependency : entry.dependencies) {
+            Set<Key> keys = byDependency.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) byDependency.remove(dependency);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final Collection<String> dependencies;
+        private final long created = System.nanoTime();
+
+        Entry(Object value, Collection<String> dependencies) {
+            this.value = value;
+            this.dependencies = dependencies;
+        }
+    }
+
+    // What a report is about (a user or group), which report, and over what period
+    public static final class Key {
+        private final String subject;
+        private final String report;
+        private final String period;
+
+        public Key(String subject, String report, String period) {
+            this.subject = subject;
+            this.report = report;
+            this.period = period;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return subject.equals(other.subject) && report.equals(other.report) && period.equals(other.period);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subject, report, period);
+        }
+
+        @Override
+        public String toString() {
+            return subject + "/" + report + "/" + period;
+        }
+    }
+}
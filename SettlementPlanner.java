@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Turns net balances into a short list of transfers. The largest debtor pays
+// the largest creditor, whoever is left over goes back on the heap, and this
+// repeats, so n people settle in at most n - 1 transfers in O(n log n).
+public class SettlementPlanner {
+
+    public static class Transfer {
+        private final String from;
+        private final String to;
+        private final long amount; // minor units
+
+        public Transfer(String from, String to, long amount) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+
+        public String getFrom() { return from; }
+        public String getTo() { return to; }
+        public long getAmount() { return amount; }
+
+        @Override
+        public String toString() {
+            return String.format("%s pays %s ₹%s", from, to, Money.format(amount));
+        }
+    }
+
+    public static List<Transfer> plan(Ledger balances) {
+        long[] amounts = new long[balances.size()];
+        int[] userIds = new int[balances.size()];
+        int[] count = new int[1];
+        balances.forEach((userId, amount) -> {
+            userIds[count[0]] = userId;
+            amounts[count[0]++] = amount;
+        });
+        return plan(userIds, amounts, count[0]);
+    }
+
+    // balances[userId] for every id below userCount
+    public static List<Transfer> plan(long[] balances, int userCount) {
+        int[] userIds = new int[userCount];
+        for (int i = 0; i < userCount; i++) userIds[i] = i;
+        return plan(userIds, balances.clone(), userCount);
+    }
+
+    private static List<Transfer> plan(int[] userIds, long[] remaining, int size) {
+        // Heaps of indexes into remaining, largest amount owed/owing on top
+        PriorityQueue<Integer> creditors = new PriorityQueue<>((a, b) -> Long.compare(remaining[b], remaining[a]));
+        PriorityQueue<Integer> debtors = new PriorityQueue<>((a, b) -> Long.compare(remaining[a], remaining[b]));
+        for (int i = 0; i < size; i++) {
+            if (remaining[i] > 0) creditors.add(i);
+            else if (remaining[i] < 0) debtors.add(i);
+        }
+
+        List<Transfer> transfers = new ArrayList<>();
+        while (!creditors.isEmpty() && !debtors.isEmpty()) {
+            int creditor = creditors.poll();
+            int debtor = debtors.poll();
+            long amount = Math.min(remaining[creditor], -remaining[debtor]);
+            transfers.add(new Transfer(
+                    SymbolTable.USERS.name(userIds[debtor]),
+                    SymbolTable.USERS.name(userIds[creditor]),
+                    amount));
+
+            remaining[creditor] -= amount;
+            remaining[debtor] += amount;
+            if (remaining[creditor] > 0) creditors.add(creditor);
+            if (remaining[debtor] < 0) debtors.add(debtor);
+        }
+        return transfers;
+    }
+}
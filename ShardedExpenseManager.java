@@ -0,0 +1,399 @@
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Splits expenses across shards so writes to unrelated groups run in
+// parallel. Each shard is a plain ExpenseManager whose changes all run on its
+// own writer thread, so its write lock is never contended. A group and its
+// expenses live on the shard picked by group id, which then answers group
+// balances and settlement plans alone; personal expenses go by payer.
+//
+// Per-user answers (balances, debts, spending) add up every shard's share,
+// gathered in parallel. Each shard is consistent on its own, but a gather can
+// see a write on one shard and not yet one on another.
+public class ShardedExpenseManager implements AutoCloseable {
+    private final ExpenseManager[] shards;
+    private final ExecutorService[] writers;
+    // Where each expense lives, so updates and removals reach it. Set when a
+    // change is queued rather than when it is applied: each writer runs its
+    // queue in order, so a removal queued after an add always finds it.
+    private final Map<String, Integer> shardByExpense = new ConcurrentHashMap<>();
+
+    public ShardedExpenseManager(int shardCount, List<Expense> expenses, List<Group> groups) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        this.shards = new ExpenseManager[shardCount];
+        this.writers = new ExecutorService[shardCount];
+
+        List<List<Expense>> expenseParts = new ArrayList<>();
+        List<List<Group>> groupParts = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            expenseParts.add(new ArrayList<>());
+            groupParts.add(new ArrayList<>());
+            String name = "shard-writer-" + i;
+            writers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        for (Expense expense : expenses) {
+            int shard = shardOf(expense);
+            expenseParts.get(shard).add(expense);
+            shardByExpense.put(expense.getExpenseId(), shard);
+        }
+        for (Group group : groups) {
+            groupParts.get(shardOf(group.getGroupId())).add(group);
+        }
+
+        // Shards index their part on their own writer threads
+        List<CompletableFuture<Void>> built = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int shard = i;
+            built.add(write(shard, () -> shards[shard] = new ExpenseManager(expenseParts.get(shard), groupParts.get(shard))));
+        }
+        built.forEach(ShardedExpenseManager::await);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Writes. The synchronous ones wait for the shard to apply the change;
+    // the Async ones return as soon as it is queued.
+
+    public void addExpense(Expense expense) {
+        await(addExpenseAsync(expense));
+    }
+
+    // An expense whose id is already stored replaces it: on its own shard
+    // as an update, which reverses the old version first, otherwise by a move
+    public CompletableFuture<Void> addExpenseAsync(Expense expense) {
+        Integer previous = shardByExpense.get(expense.getExpenseId());
+        int shard = shardOf(expense);
+        if (previous != null && previous != shard) {
+            return move(expense, previous, shard);
+        }
+        shardByExpense.put(expense.getExpenseId(), shard);
+        if (previous != null) {
+            return write(shard, () -> shards[shard].updateExpense(expense));
+        }
+        return write(shard, () -> shards[shard].addExpense(expense));
+    }
+
+    // Splits the batch by shard and applies each part under one lock, all
+    // shards at once; returns the expenses skipped because their id was taken
+    public List<Expense> addExpenses(Collection<Expense> batch) {
+        List<Expense> duplicates = new ArrayList<>();
+        List<List<Expense>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) parts.add(new ArrayList<>());
+        for (Expense expense : batch) {
+            int shard = shardOf(expense);
+            if (shardByExpense.putIfAbsent(expense.getExpenseId(), shard) != null) {
+                duplicates.add(expense);
+            } else {
+                parts.get(shard).add(expense);
+            }
+        }
+
+        List<CompletableFuture<List<Expense>>> applied = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (parts.get(i).isEmpty()) continue;
+            int shard = i;
+            List<Expense> part = parts.get(i);
+            applied.add(CompletableFuture.supplyAsync(() -> shards[shard].addExpenses(part), writers[shard]));
+        }
+        for (CompletableFuture<List<Expense>> future : applied) {
+            duplicates.addAll(await(future));
+        }
+        return duplicates;
+    }
+
+    public void removeExpense(String expenseId) {
+        Integer shard = shardByExpense.remove(expenseId);
+        if (shard == null) return;
+        await(write(shard, () -> shards[shard].removeExpense(expenseId)));
+    }
+
+    // An edit that changes the group, or the payer of a personal expense,
+    // moves it: removed from one shard, then added to the other. The caller
+    // waits out the removal, so the expense is never on both at once.
+    public void updateExpense(Expense updatedExpense) {
+        Integer previous = shardByExpense.get(updatedExpense.getExpenseId());
+        int shard = shardOf(updatedExpense);
+        if (previous != null && previous != shard) {
+            await(move(updatedExpense, previous, shard));
+            return;
+        }
+        shardByExpense.put(updatedExpense.getExpenseId(), shard);
+        await(write(shard, () -> shards[shard].updateExpense(updatedExpense)));
+    }
+
+    private CompletableFuture<Void> move(Expense expense, int from, int to) {
+        String expenseId = expense.getExpenseId();
+        await(write(from, () -> shards[from].removeExpense(expenseId)));
+        shardByExpense.put(expenseId, to);
+        return write(to, () -> shards[to].addExpense(expense));
+    }
+
+    public void createGroup(Group group) {
+        int shard = shardOf(group.getGroupId());
+        await(write(shard, () -> shards[shard].createGroup(group)));
+    }
+
+    public void updateGroup(Group group) {
+        int shard = shardOf(group.getGroupId());
+        await(write(shard, () -> shards[shard].updateGroup(group)));
+    }
+
+    public boolean removeGroup(String groupId) {
+        int shard = shardOf(groupId);
+        return await(CompletableFuture.supplyAsync(() -> shards[shard].removeGroup(groupId), writers[shard]));
+    }
+
+    // A group's settlements stay on its shard; personal ones go by payer
+    public List<Expense> recordSettlements(List<SettlementPlanner.Transfer> transfers, String date, String groupId) {
+        Map<Integer, List<SettlementPlanner.Transfer>> byShard = new TreeMap<>();
+        for (SettlementPlanner.Transfer transfer : transfers) {
+            int shard = groupId != null ? shardOf(groupId) : shardOfPayer(transfer.getFrom());
+            byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(transfer);
+        }
+
+        List<CompletableFuture<List<Expense>>> recorded = new ArrayList<>();
+        byShard.forEach((shard, part) -> recorded.add(CompletableFuture.supplyAsync(() -> {
+            List<Expense> settlements = shards[shard].recordSettlements(part, date, groupId);
+            settlements.forEach(expense -> shardByExpense.put(expense.getExpenseId(), shard));
+            return settlements;
+        }, writers[shard])));
+
+        List<Expense> settlements = new ArrayList<>(transfers.size());
+        recorded.forEach(future -> settlements.addAll(await(future)));
+        return settlements;
+    }
+
+    // Queries on a single expense or group go straight to its shard
+
+    public Expense getExpenseById(String expenseId) {
+        Integer shard = shardByExpense.get(expenseId);
+        return shard != null ? shards[shard].getExpenseById(expenseId) : null;
+    }
+
+    public Group getGroupById(String groupId) {
+        return shards[shardOf(groupId)].getGroupById(groupId);
+    }
+
+    public Ledger getGroupBalances(String groupId) {
+        return shards[shardOf(groupId)].getGroupBalances(groupId);
+    }
+
+    public ExpensePage getGroupExpenses(String groupId, String continuationToken, int pageSize) {
+        return shards[shardOf(groupId)].getGroupExpenses(groupId, continuationToken, pageSize);
+    }
+
+    public List<Expense> getGroupExpensesBetween(String groupId, LocalDateTime from, LocalDateTime to, int limit) {
+        return shards[shardOf(groupId)].getGroupExpensesBetween(groupId, from, to, limit);
+    }
+
+    public List<SettlementPlanner.Transfer> planGroupSettlement(String groupId) {
+        return shards[shardOf(groupId)].planGroupSettlement(groupId);
+    }
+
+    // Everything else is scatter-gather
+
+    public long getUserBalance(String username) {
+        long balance = 0;
+        for (long share : gather(shard -> shard.getUserBalance(username))) {
+            balance += share;
+        }
+        return balance;
+    }
+
+    public long[] getUserBalances() {
+        long[] balances = new long[SymbolTable.USERS.size()];
+        for (long[] shares : gather(ExpenseManager::getUserBalances)) {
+            for (int userId = 0; userId < shares.length && userId < balances.length; userId++) {
+                balances[userId] += shares[userId];
+            }
+        }
+        return balances;
+    }
+
+    public Ledger getDebts(String username) {
+        Ledger debts = new Ledger();
+        for (Ledger shares : gather(shard -> shard.getDebts(username))) {
+            shares.forEach(debts::add);
+        }
+        return debts;
+    }
+
+    public long getDebt(String username, String counterparty) {
+        long debt = 0;
+        for (long share : gather(shard -> shard.getDebt(username, counterparty))) {
+            debt += share;
+        }
+        return debt;
+    }
+
+    public List<SettlementPlanner.Transfer> planUserSettlement() {
+        long[] balances = getUserBalances();
+        return SettlementPlanner.plan(balances, balances.length);
+    }
+
+    public List<SettlementPlanner.Transfer> planPairwiseSettlement(String username) {
+        List<SettlementPlanner.Transfer> plan = new ArrayList<>();
+        getDebts(username).forEach((otherId, amount) -> {
+            String other = SymbolTable.USERS.name(otherId);
+            if (amount > 0) {
+                plan.add(new SettlementPlanner.Transfer(other, username, amount));
+            } else if (amount < 0) {
+                plan.add(new SettlementPlanner.Transfer(username, other, -amount));
+            }
+        });
+        return plan;
+    }
+
+    public void showUserSummary(String username) {
+        long balance = getUserBalance(username);
+        System.out.printf("\033[1;36mNet Balance: %s₹%s\n",
+                balance >= 0 ? "You are owed " : "You owe ", Money.format(Math.abs(balance)));
+
+        System.out.println("\033[1;33mDetailed Balances:");
+        for (SettlementPlanner.Transfer debt : planPairwiseSettlement(username)) {
+            boolean owed = debt.getTo().equals(username);
+            System.out.printf("\033[0;37m%s: %s₹%s\n", owed ? debt.getFrom() : debt.getTo(),
+                    owed ? "owes you " : "you owe ", Money.format(debt.getAmount()));
+        }
+    }
+
+    public List<Group> getUserGroups(String username) {
+        List<Group> groups = new ArrayList<>();
+        gather(shard -> shard.getUserGroups(username)).forEach(groups::addAll);
+        return groups;
+    }
+
+    public List<Group> getGroups() {
+        List<Group> groups = new ArrayList<>();
+        gather(ExpenseManager::getGroups).forEach(groups::addAll);
+        return groups;
+    }
+
+    // Shard by shard, so not in overall insertion order
+    public List<Expense> getExpenses() {
+        List<Expense> expenses = new ArrayList<>(shardByExpense.size());
+        gather(ExpenseManager::getExpenses).forEach(expenses::addAll);
+        return expenses;
+    }
+
+    // Each shard returns its first limit, and the merge keeps the earliest limit overall
+    public List<Expense> getExpensesBetween(String username, LocalDateTime from, LocalDateTime to, int limit) {
+        List<Expense> merged = new ArrayList<>();
+        gather(shard -> shard.getExpensesBetween(username, from, to, limit)).forEach(merged::addAll);
+        merged.sort(Comparator.comparingLong(Expense::getMinute));
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    public Collection<SpendingRollup.Totals> getSpendingByCategory(String username, YearMonth from, YearMonth to) {
+        return mergeTotals(gather(shard -> shard.getSpendingByCategory(username, from, to)));
+    }
+
+    public Collection<SpendingRollup.Totals> getSpendingBetween(String username, LocalDateTime from, LocalDateTime to) {
+        return mergeTotals(gather(shard -> shard.getSpendingBetween(username, from, to)));
+    }
+
+    public SpendingRollup.Totals getCategorySpending(String username, String category) {
+        SpendingRollup.Totals merged = null;
+        for (SpendingRollup.Totals totals : gather(shard -> shard.getCategorySpending(username, category))) {
+            if (totals != null) merged = merged != null ? merged.merge(totals) : totals;
+        }
+        return merged;
+    }
+
+    public boolean verifyBalances() {
+        for (boolean matches : gather(ExpenseManager::verifyBalances)) {
+            if (!matches) return false;
+        }
+        return true;
+    }
+
+    // Lets queued writes finish, then stops the writer threads
+    @Override
+    public void close() {
+        for (ExecutorService writer : writers) {
+            writer.shutdown();
+        }
+        try {
+            for (ExecutorService writer : writers) {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Collection<SpendingRollup.Totals> mergeTotals(List<Collection<SpendingRollup.Totals>> shares) {
+        Map<String, SpendingRollup.Totals> byCategory = new LinkedHashMap<>();
+        for (Collection<SpendingRollup.Totals> share : shares) {
+            for (SpendingRollup.Totals totals : share) {
+                byCategory.merge(totals.getCategory().toLowerCase(Locale.ROOT), totals, SpendingRollup.Totals::merge);
+            }
+        }
+        return byCategory.values();
+    }
+
+    // Reads are safe on any thread, so they fan out on the common pool
+    // rather than queueing behind writes
+    private <T> List<T> gather(Function<ExpenseManager, T> query) {
+        if (shards.length == 1) {
+            return Collections.singletonList(query.apply(shards[0]));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (ExpenseManager shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private CompletableFuture<Void> write(int shard, Runnable change) {
+        return CompletableFuture.runAsync(change, writers[shard]);
+    }
+
+    // Rethrows a shard's failure as the caller would have seen it unsharded
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private int shardOf(Expense expense) {
+        return expense.getGroupId() != null ? shardOf(expense.getGroupId()) : shardOfPayer(expense.getPayerId());
+    }
+
+    private int shardOf(String groupId) {
+        return Math.floorMod(groupId.hashCode(), shards.length);
+    }
+
+    private int shardOfPayer(String payer) {
+        return shardOfPayer(SymbolTable.USERS.intern(payer));
+    }
+
+    // User ids are dense, so they spread evenly as they are
+    private int shardOfPayer(int payerId) {
+        return payerId % shards.length;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.*;
+
+// Running spending totals per (user, month, category), kept in step with
+// ExpenseManager's add/remove so reports never scan expenses. An expense
+// counts in full towards every participant's totals.
+public class SpendingRollup {
+    // Bucket for expenses whose date couldn't be parsed; only all-time queries see it
+    public static final int NO_MONTH = Integer.MIN_VALUE;
+
+    // user id -> month key -> case-folded category -> cell
+    private final Map<Integer, NavigableMap<Integer, Map<String, Cell>>> byUser = new HashMap<>();
+
+    public void add(Expense expense, int month) {
+        int[] participants = expense.getParticipantIds();
+        for (int i = 0; i < participants.length; i++) {
+            if (isRepeat(participants, i)) continue;
+            byUser.computeIfAbsent(participants[i], k -> new TreeMap<>())
+                    .computeIfAbsent(month, k -> new HashMap<>())
+                    .computeIfAbsent(key(expense.getCategory()), k -> new Cell(expense.getCategory()))
+                    .add(expense.getAmount());
+        }
+    }
+
+    public void remove(Expense expense, int month) {
+        int[] participants = expense.getParticipantIds();
+        for (int i = 0; i < participants.length; i++) {
+            if (isRepeat(participants, i)) continue;
+            NavigableMap<Integer, Map<String, Cell>> months = byUser.get(participants[i]);
+            Map<String, Cell> categories = months != null ? months.get(month) : null;
+            Cell cell = categories != null ? categories.get(key(expense.getCategory())) : null;
+            if (cell == null) continue;
+
+            cell.remove(expense.getAmount());
+            if (cell.count == 0) {
+                categories.remove(key(expense.getCategory()));
+                if (categories.isEmpty()) months.remove(month);
+                if (months.isEmpty()) byUser.remove(participants[i]);
+            }
+        }
+    }
+
+    // Totals per category for months in [fromMonth, toMonth]; cost is
+    // O(months in range * categories)
+    public Map<String, Totals> range(int userId, int fromMonth, int toMonth) {
+        Map<String, Totals> result = new LinkedHashMap<>();
+        NavigableMap<Integer, Map<String, Cell>> months = byUser.get(userId);
+        if (months == null) return result;
+
+        for (Map<String, Cell> categories : months.subMap(fromMonth, true, toMonth, true).values()) {
+            for (Map.Entry<String, Cell> entry : categories.entrySet()) {
+                Cell cell = entry.getValue();
+                result.merge(entry.getKey(),
+                        new Totals(cell.category, cell.total, cell.count, cell.amounts.firstKey(), cell.amounts.lastKey()),
+                        Totals::merge);
+            }
+        }
+        return result;
+    }
+
+    // Walks every cell in place; month is a key as passed to add, or NO_MONTH
+    public void forEach(CellVisitor visitor) {
+        for (Map.Entry<Integer, NavigableMap<Integer, Map<String, Cell>>> user : byUser.entrySet()) {
+            for (Map.Entry<Integer, Map<String, Cell>> month : user.getValue().entrySet()) {
+                for (Cell cell : month.getValue().values()) {
+                    visitor.visit(user.getKey(), month.getKey(), cell.category, cell.total, cell.count,
+                            cell.amounts.firstKey(), cell.amounts.lastKey());
+                }
+            }
+        }
+    }
+
+    public interface CellVisitor {
+        void visit(int userId, int month, String category, long total, int count, long min, long max);
+    }
+
+    private static String key(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isRepeat(int[] participants, int index) {
+        for (int i = 0; i < index; i++) {
+            if (participants[i] == participants[index]) return true;
+        }
+        return false;
+    }
+
+    private static class Cell {
+        private final String category;
+        private long total;
+        private int count;
+        // amount -> occurrences, so min/max survive removals
+        private final TreeMap<Long, Integer> amounts = new TreeMap<>();
+
+        Cell(String category) {
+            this.category = category;
+        }
+
+        void add(long amount) {
+            total += amount;
+            count++;
+            amounts.merge(amount, 1, Integer::sum);
+        }
+
+        void remove(long amount) {
+            total -= amount;
+            count--;
+            amounts.computeIfPresent(amount, (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    public static class Totals {
+        private final String category;
+        private final long total;
+        private final int count;
+        private final long min;
+        private final long max;
+
+        public Totals(String category, long total, int count, long min, long max) {
+            this.category = category;
+            this.total = total;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+        }
+
+        public String getCategory() { return category; }
+        public long getTotal() { return total; }
+        public int getCount() { return count; }
+        public long getMin() { return min; }
+        public long getMax() { return max; }
+
+        Totals merge(Totals other) {
+            return new Totals(category, total + other.total, count + other.count,
+                    Math.min(min, other.min), Math.max(max, other.max));
+        }
+    }
+}
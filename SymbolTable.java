@@ -0,0 +1,47 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps names to dense int ids so each name is held once and balances can
+// live in plain arrays. Lookups are lock-free; new names are added under a lock.
+public class SymbolTable {
+    public static final SymbolTable USERS = new SymbolTable();
+    public static final SymbolTable GROUPS = new SymbolTable();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+
+            int newId = ids.size();
+            String[] current = names;
+            if (newId == current.length) {
+                current = Arrays.copyOf(current, newId * 2);
+            }
+            current[newId] = name;
+            names = current;
+            ids.put(name, newId);
+            return newId;
+        }
+    }
+
+    // -1 when the name has never been interned
+    public int lookup(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}